@@ -0,0 +1,128 @@
+package example;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import net.popsim.src.simu.ComponentStore;
+import net.popsim.src.simu.Entity;
+import net.popsim.src.simu.Snapshot;
+import net.popsim.src.simu.World;
+import net.popsim.src.util.Colors;
+
+/**
+ * Counterpart to {@link PositionEntity} that keeps its past, current and future positions in the world's component
+ * store instead of in Vectors of its own. With "Component storage" set to "Off-heap", that state lives outside the
+ * garbage collected heap.
+ */
+public abstract class CompactPositionEntity extends Entity {
+
+    protected final ComponentStore mComponents;
+    protected final int mKind;
+    public double mSize;
+    public Color mColor;
+    /**
+     * Where to place the entity when it spawns, since it has no row before then.
+     */
+    private double mSpawnX, mSpawnY;
+
+    public CompactPositionEntity(World world, double r, Color color) {
+        super(world);
+        mComponents = world.getComponents();
+        mKind = mComponents.kindOf(getClass());
+        mSize = r;
+        mColor = color;
+    }
+
+    public CompactPositionEntity setPosition(double x, double y) {
+        if (getSlot() < 0) {
+            mSpawnX = x;
+            mSpawnY = y;
+        } else mComponents.set(getSlot(), mKind, x, y, mSize, Colors.toArgb(mColor));
+        return this;
+    }
+
+    @Override
+    public void onSpawn() {
+        mComponents.set(getSlot(), mKind, mSpawnX, mSpawnY, mSize, Colors.toArgb(mColor));
+    }
+
+    @Override
+    public void finish() {
+        int slot = getSlot();
+        mComponents.setPastPosition(slot, mComponents.getX(slot), mComponents.getY(slot));
+        mComponents.setPosition(slot, mComponents.getFutureX(slot), mComponents.getFutureY(slot));
+        mComponents.setSize(slot, mSize);
+        mComponents.setColor(slot, Colors.toArgb(mColor));
+    }
+
+    @Override
+    public void render(GraphicsContext gfx) {
+        double d = mSize * 2;
+        gfx.setFill(mColor);
+        gfx.fillOval(getX() - mSize, getY() - mSize, d, d);
+    }
+
+    @Override
+    public void snapshot(Snapshot snapshot) {
+        snapshot.add(getX(), getY(), mSize, mColor);
+    }
+
+    public double getX() {
+        return mComponents.getX(getSlot());
+    }
+
+    public double getY() {
+        return mComponents.getY(getSlot());
+    }
+
+    public double getPastX() {
+        return mComponents.getPastX(getSlot());
+    }
+
+    public double getPastY() {
+        return mComponents.getPastY(getSlot());
+    }
+
+    public double getFutureX() {
+        return mComponents.getFutureX(getSlot());
+    }
+
+    public double getFutureY() {
+        return mComponents.getFutureY(getSlot());
+    }
+
+    public void setFuturePosition(double x, double y) {
+        mComponents.setFuturePosition(getSlot(), x, y);
+    }
+
+    protected void boundCheck(double damp) {
+        boundCheck(mSize, mSize, mWorld.getWidth() - mSize, mWorld.getHeight() - mSize, damp);
+    }
+
+    protected void boundCheck(double x0, double y0, double x1, double y1, double damp) {
+        int slot = getSlot();
+        double x = mComponents.getX(slot), fx = mComponents.getFutureX(slot);
+        double y = mComponents.getY(slot), fy = mComponents.getFutureY(slot);
+        if (fx < x0) {
+            x = fix(x, x0, damp);
+            fx = fix(fx, x0, damp);
+        }
+        else if (fx >= x1) {
+            x = fix(x, x1, damp);
+            fx = fix(fx, x1, damp);
+        }
+        if (fy < y0) {
+            y = fix(y, y0, damp);
+            fy = fix(fy, y0, damp);
+        }
+        else if (fy >= y1) {
+            y = fix(y, y1, damp);
+            fy = fix(fy, y1, damp);
+        }
+        mComponents.setPosition(slot, x, y);
+        mComponents.setFuturePosition(slot, fx, fy);
+    }
+
+    protected double fix(double d, double r, double damp) {
+        return r - (d - r) * damp;
+    }
+}
@@ -2,8 +2,11 @@ package example;
 
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
+import net.popsim.src.simu.ComponentStore;
 import net.popsim.src.simu.Entity;
+import net.popsim.src.simu.Snapshot;
 import net.popsim.src.simu.World;
+import net.popsim.src.util.Colors;
 import net.popsim.src.util.Vector;
 
 public abstract class PositionEntity extends Entity {
@@ -11,6 +14,10 @@ public abstract class PositionEntity extends Entity {
     public final Vector mPastPosition, mCurrentPosition, mFuturePosition;
     public double mSize;
     public Color mColor;
+    /**
+     * This entity's kind in the world's component store.
+     */
+    protected final int mKind;
 
     public PositionEntity(World world, double r, Color color) {
         super(world);
@@ -19,6 +26,7 @@ public abstract class PositionEntity extends Entity {
         mFuturePosition = new Vector();
         mSize = r;
         mColor = color;
+        mKind = world.getComponents().kindOf(getClass());
     }
 
     public PositionEntity setPosition(double x, double y) {
@@ -28,10 +36,23 @@ public abstract class PositionEntity extends Entity {
         return this;
     }
 
+    @Override
+    public void onSpawn() {
+        mWorld.getComponents().set(getSlot(), mKind, mCurrentPosition.mX, mCurrentPosition.mY, mSize, Colors.toArgb(mColor));
+    }
+
+    /**
+     * Moves the entity along and publishes its current position, size and color to the component store, where others
+     * read it during the next update.
+     */
     @Override
     public void finish() {
         mPastPosition.set(mCurrentPosition);
         mCurrentPosition.set(mFuturePosition);
+        ComponentStore components = mWorld.getComponents();
+        components.setPosition(getSlot(), mCurrentPosition.mX, mCurrentPosition.mY);
+        components.setSize(getSlot(), mSize);
+        components.setColor(getSlot(), Colors.toArgb(mColor));
     }
 
     @Override
@@ -43,6 +64,11 @@ public abstract class PositionEntity extends Entity {
         gfx.fillOval(x, y, d, d);
     }
 
+    @Override
+    public void snapshot(Snapshot snapshot) {
+        snapshot.add(mCurrentPosition.mX, mCurrentPosition.mY, mSize, mColor);
+    }
+
     protected void boundCheck(double damp) {
         boundCheck(mSize, mSize, mWorld.getWidth() - mSize, mWorld.getHeight() - mSize, damp);
     }
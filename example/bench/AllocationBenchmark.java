@@ -0,0 +1,52 @@
+package example.bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import net.popsim.src.simu.*;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures how much garbage a tick of the repel example makes, summed over every thread. Needs a JVM that can count
+ * allocations per thread, such as HotSpot. Run with <tt>-XX:-DoEscapeAnalysis</tt> to also count the objects the JIT
+ * would otherwise have removed.
+ * <br><tt>AllocationBenchmark [ticks] [neighbor skin]</tt>
+ */
+public class AllocationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int ticks = args.length > 0? Integer.parseInt(args[0]) : 1000;
+        double skin = args.length > 1? Double.parseDouble(args[1]) : 0;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        JsonObject config = new JsonObject();
+        config.addProperty("Random seed", "1");
+        JsonArray size = new JsonArray();
+        size.add(new JsonPrimitive(1024));
+        size.add(new JsonPrimitive(512));
+        config.add("World dimensions", size);
+        config.addProperty("World class", "example.repel.RWorld");
+        config.addProperty("Neighbor skin", skin);
+        Simulation simulation = new Simulation(ContextHelper.makeContext(config), true);
+        simulation.getWorld().init();
+        // Warm up so the JIT has had its chance to remove what it can
+        for (int i = 0; i < ticks; i++)
+            simulation.tick();
+        long before = allocated(threads);
+        for (int i = 0; i < ticks; i++)
+            simulation.tick();
+        long bytes = allocated(threads) - before;
+        int entities = simulation.getWorld().getEntityCount();
+        System.out.printf("%d ticks of %d entities: %.1f B/tick, %.2f B/entity/tick\n", ticks, entities,
+                bytes / (double) ticks, bytes / (double) ticks / entities);
+    }
+
+    private static long allocated(com.sun.management.ThreadMXBean threads) {
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+            if (bytes > 0)
+                total += bytes;
+        return total;
+    }
+}
@@ -0,0 +1,93 @@
+package example.bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import example.PositionEntity;
+import javafx.scene.paint.Color;
+import net.popsim.src.simu.*;
+import net.popsim.src.simu.force.ForceField;
+import net.popsim.src.simu.force.ForceKernel;
+
+import java.util.Random;
+
+/**
+ * Measures how long a {@link ForceField} takes to evaluate inverse-square repulsion between clustered bodies, and how
+ * far off its forces are from the exact sums, for exact mode and a range of opening angles.
+ * <br><tt>ForceFieldBenchmark [bodies] [repeats]</tt>
+ */
+public class ForceFieldBenchmark {
+
+    private static final int SIZE = 4096;
+    private static final int SAMPLES = 500;
+    private static final double[] THETAS = {0.25, 0.5, 0.75, 1};
+    private static final ForceKernel KERNEL = distance2 -> 1 / distance2;
+
+    public static void main(String[] args) throws Exception {
+        int bodies = args.length > 0? Integer.parseInt(args[0]) : 100000;
+        int repeats = args.length > 1? Integer.parseInt(args[1]) : 5;
+        JsonObject config = new JsonObject();
+        config.addProperty("Random seed", "1");
+        JsonArray size = new JsonArray();
+        size.add(new JsonPrimitive(SIZE));
+        size.add(new JsonPrimitive(SIZE));
+        config.add("World dimensions", size);
+        config.addProperty("Spatial index", "None");
+        Simulation simulation = new Simulation(ContextHelper.makeContext(config), true);
+        World world = simulation.getWorld();
+        Random rng = new Random(1);
+        for (int i = 0; i < bodies; i++) {
+            // A few dense colonies
+            double cx = SIZE * (1 + i % 4) / 5D, cy = SIZE * (1 + i % 3) / 4D;
+            world.spawnEntity(new Body(world).setPosition(cx + rng.nextGaussian() * 100, cy + rng.nextGaussian() * 100));
+        }
+        simulation.tick();
+        ComponentStore components = world.getComponents();
+        int slots = world.getEntityCount();
+        // Exact forces on a sample of bodies, for reference
+        int[] sample = new int[SAMPLES];
+        double[] exactX = new double[SAMPLES], exactY = new double[SAMPLES];
+        for (int s = 0; s < SAMPLES; s++) {
+            int slot = sample[s] = rng.nextInt(slots);
+            double x = components.getX(slot), y = components.getY(slot);
+            for (int i = 0; i < slots; i++) {
+                double dx = x - components.getX(i), dy = y - components.getY(i);
+                double distance2 = dx * dx + dy * dy;
+                if (distance2 > 0) {
+                    exactX[s] += KERNEL.scale(distance2) * dx;
+                    exactY[s] += KERNEL.scale(distance2) * dy;
+                }
+            }
+        }
+        System.out.printf("%-8s %10s %14s\n", "Theta", "Time (ms)", "RMS rel. error");
+        for (int t = -1; t < THETAS.length; t++) {
+            // Exact first
+            double theta = t < 0? 0 : THETAS[t];
+            ForceField field = new ForceField(world.entitiesOf(Body.class), KERNEL, theta, t < 0);
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < repeats; r++) {
+                long start = System.nanoTime();
+                field.evaluate(components, slots, world.getExecutor());
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            double error = 0;
+            for (int s = 0; s < SAMPLES; s++) {
+                double ex = field.getForceX(sample[s]) - exactX[s], ey = field.getForceY(sample[s]) - exactY[s];
+                error += (ex * ex + ey * ey) / (exactX[s] * exactX[s] + exactY[s] * exactY[s]);
+            }
+            System.out.printf("%-8s %10.2f %14.2e\n", t < 0? "Exact" : String.valueOf(theta), best / 1e6,
+                    Math.sqrt(error / SAMPLES));
+        }
+    }
+
+    private static class Body extends PositionEntity {
+
+        private Body(World world) {
+            super(world, 1, Color.WHITE);
+        }
+
+        @Override
+        public void update() {
+        }
+    }
+}
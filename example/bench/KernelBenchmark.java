@@ -0,0 +1,127 @@
+package example.bench;
+
+import example.repel.REntity;
+import net.popsim.src.simu.spatial.UniformGrid;
+import net.popsim.src.util.BatchKernels;
+import net.popsim.src.util.Vector;
+
+import java.util.Random;
+
+/**
+ * Compares ways of summing the repel example's repulsion. Over every pair of points: a Vector object per pair, as
+ * REntity used to, against the batch kernel over plain arrays. Over neighbors in a grid: a callback per neighbor against
+ * the batch kernel over each run of cells. Times are per pair of points, including the pairs the grid skips.
+ * <br><tt>KernelBenchmark [points] [repeats]</tt>
+ */
+public class KernelBenchmark {
+
+    public static void main(String[] args) {
+        int count = args.length > 0? Integer.parseInt(args[0]) : 4096;
+        int repeats = args.length > 1? Integer.parseInt(args[1]) : 20;
+        Random rng = new Random(1);
+        double[] xs = new double[count], ys = new double[count];
+        Vector[] positions = new Vector[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rng.nextDouble() * 1024;
+            ys[i] = rng.nextDouble() * 512;
+            positions[i] = new Vector(xs[i], ys[i]);
+        }
+        int[] slots = new int[count];
+        for (int i = 0; i < count; i++)
+            slots[i] = i;
+        UniformGrid grid = new UniformGrid(1024, 512, 64);
+        grid.build(slots, xs, ys, count);
+        double[] outX = new double[count], outY = new double[count];
+        System.out.printf("%-10s %12s %14s\n", "Loop", "ns/pair", "Checksum");
+        // Twice over, so the second round is measured with both loops compiled
+        for (int round = 0; round < 2; round++) {
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < repeats; r++) {
+                long start = System.nanoTime();
+                objects(positions, outX, outY);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            if (round > 0)
+                System.out.printf("%-10s %12.3f %14.6e\n", "Objects", best / ((double) count * count), checksum(outX, outY));
+            best = Long.MAX_VALUE;
+            for (int r = 0; r < repeats; r++) {
+                long start = System.nanoTime();
+                BatchKernels.repelAll(xs, ys, count, REntity.RANGE2, outX, outY);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            if (round > 0)
+                System.out.printf("%-10s %12.3f %14.6e\n", "Batch", best / ((double) count * count), checksum(outX, outY));
+            best = Long.MAX_VALUE;
+            for (int r = 0; r < repeats; r++) {
+                long start = System.nanoTime();
+                gridCallbacks(grid, xs, ys, outX, outY);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            if (round > 0)
+                System.out.printf("%-10s %12.3f %14.6e\n", "Grid calls", best / ((double) count * count), checksum(outX, outY));
+            best = Long.MAX_VALUE;
+            for (int r = 0; r < repeats; r++) {
+                long start = System.nanoTime();
+                gridRuns(grid, xs, ys, outX, outY);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            if (round > 0)
+                System.out.printf("%-10s %12.3f %14.6e\n", "Grid runs", best / ((double) count * count), checksum(outX, outY));
+        }
+    }
+
+    private static void objects(Vector[] positions, double[] outX, double[] outY) {
+        for (int i = 0; i < positions.length; i++) {
+            Vector p = new Vector();
+            for (int j = 0; j < positions.length; j++) {
+                if (j == i)
+                    continue;
+                Vector diff = positions[i].subtract(positions[j], new Vector());
+                double mag2 = diff.squareMag();
+                if (mag2 <= REntity.RANGE2 && mag2 > 0) {
+                    diff.multiply(1 / mag2, diff);
+                    p.add(diff, p);
+                }
+            }
+            outX[i] = p.mX;
+            outY[i] = p.mY;
+        }
+    }
+
+    private static void gridCallbacks(UniformGrid grid, double[] xs, double[] ys, double[] outX, double[] outY) {
+        double[] sum = new double[2];
+        for (int i = 0; i < xs.length; i++) {
+            double x = xs[i], y = ys[i];
+            sum[0] = sum[1] = 0;
+            grid.forEachNeighbor(x, y, REntity.RANGE, (slot, ox, oy) -> {
+                double dx = x - ox, dy = y - oy;
+                double mag2 = dx * dx + dy * dy;
+                if (mag2 > 0) {
+                    sum[0] += dx / mag2;
+                    sum[1] += dy / mag2;
+                }
+            });
+            outX[i] = sum[0];
+            outY[i] = sum[1];
+        }
+    }
+
+    private static void gridRuns(UniformGrid grid, double[] xs, double[] ys, double[] outX, double[] outY) {
+        double[] sum = new double[2];
+        for (int i = 0; i < xs.length; i++) {
+            double x = xs[i], y = ys[i];
+            sum[0] = sum[1] = 0;
+            grid.forEachRun(x, y, REntity.RANGE,
+                    (runSlots, runXs, runYs, from, to) -> BatchKernels.repel(x, y, runXs, runYs, from, to, REntity.RANGE2, sum));
+            outX[i] = sum[0];
+            outY[i] = sum[1];
+        }
+    }
+
+    private static double checksum(double[] xs, double[] ys) {
+        double sum = 0;
+        for (int i = 0; i < xs.length; i++)
+            sum += Math.abs(xs[i]) + Math.abs(ys[i]);
+        return sum;
+    }
+}
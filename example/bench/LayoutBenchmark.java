@@ -0,0 +1,123 @@
+package example.bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import example.CompactPositionEntity;
+import example.PositionEntity;
+import javafx.scene.paint.Color;
+import net.popsim.src.simu.*;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.function.Function;
+
+/**
+ * Compares the memory footprint and tick time of drifting entities kept as objects ({@link PositionEntity}) against
+ * the same entities kept in component columns ({@link CompactPositionEntity}), on and off the heap.
+ * <br><tt>LayoutBenchmark [entities] [ticks]</tt>
+ */
+public class LayoutBenchmark {
+
+    private static final double DAMP = 0.99;
+    private static final int SIZE = 4096;
+
+    public static void main(String[] args) throws Exception {
+        int entities = args.length > 0? Integer.parseInt(args[0]) : 200000;
+        int ticks = args.length > 1? Integer.parseInt(args[1]) : 100;
+        System.out.printf("%-18s %12s %12s %10s %10s %10s\n", "Layout", "Heap (MB)", "Direct (MB)", "B/entity", "p50 (ms)", "p99 (ms)");
+        run("Objects", "Heap", Drifter::new, entities, ticks);
+        run("Heap columns", "Heap", CompactDrifter::new, entities, ticks);
+        run("Off-heap columns", "Off-heap", CompactDrifter::new, entities, ticks);
+    }
+
+    private static void run(String layout, String storage, Function<World, Entity> factory, int entities, int ticks) throws Exception {
+        JsonObject config = new JsonObject();
+        config.addProperty("Random seed", "1");
+        JsonArray size = new JsonArray();
+        size.add(new JsonPrimitive(SIZE));
+        size.add(new JsonPrimitive(SIZE));
+        config.add("World dimensions", size);
+        config.addProperty("Component storage", storage);
+        long heap = usedHeap();
+        long direct = usedDirect();
+        Simulation simulation = new Simulation(ContextHelper.makeContext(config), true);
+        World world = simulation.getWorld();
+        for (int i = 0; i < entities; i++) {
+            Entity e = factory.apply(world);
+            if (e instanceof PositionEntity)
+                ((PositionEntity) e).setPosition(Math.random() * SIZE, Math.random() * SIZE);
+            else ((CompactPositionEntity) e).setPosition(Math.random() * SIZE, Math.random() * SIZE);
+            world.spawnEntity(e);
+        }
+        // Spawn everything and warm up before measuring
+        for (int i = 0; i < Math.max(10, ticks / 10); i++)
+            simulation.tick();
+        heap = usedHeap() - heap;
+        direct = usedDirect() - direct;
+        simulation.getProfiler().reset();
+        for (int i = 0; i < ticks; i++)
+            simulation.tick();
+        TickProfiler.Phase tick = TickProfiler.Phase.TICK;
+        System.out.printf("%-18s %12.1f %12.1f %10d %10.3f %10.3f\n", layout, heap / 1e6, direct / 1e6,
+                (heap + direct) / entities,
+                simulation.getProfiler().getHistogram(tick).getValueAtPercentile(50) / 1e6,
+                simulation.getProfiler().getHistogram(tick).getValueAtPercentile(99) / 1e6);
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+            if (pool.getName().equals("direct"))
+                return pool.getMemoryUsed();
+        return 0;
+    }
+
+    /**
+     * Coasts with damping and a small random kick every tick.
+     */
+    private static class Drifter extends PositionEntity {
+
+        private Drifter(World world) {
+            super(world, 1, Color.WHITE);
+        }
+
+        @Override
+        public void update() {
+            double x = mCurrentPosition.mX, y = mCurrentPosition.mY;
+            mFuturePosition.set(x + (x - mPastPosition.mX) * DAMP + mRng.nextDouble() - 0.5,
+                    y + (y - mPastPosition.mY) * DAMP + mRng.nextDouble() - 0.5);
+        }
+
+        @Override
+        public void finish() {
+            boundCheck(DAMP);
+            super.finish();
+        }
+    }
+
+    private static class CompactDrifter extends CompactPositionEntity {
+
+        private CompactDrifter(World world) {
+            super(world, 1, Color.WHITE);
+        }
+
+        @Override
+        public void update() {
+            double x = getX(), y = getY();
+            setFuturePosition(x + (x - getPastX()) * DAMP + mRng.nextDouble() - 0.5,
+                    y + (y - getPastY()) * DAMP + mRng.nextDouble() - 0.5);
+        }
+
+        @Override
+        public void finish() {
+            boundCheck(DAMP);
+            super.finish();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package example.contact;
+
+import example.PositionEntity;
+import javafx.scene.paint.Color;
+import net.popsim.src.simu.World;
+import net.popsim.src.simu.force.PairInteraction;
+
+public class CEntity extends PositionEntity {
+
+    public static final double RADIUS = 2;
+    public static final double STIFFNESS = 2000;
+    public static final double DAMP = 0.9;
+
+    private final PairInteraction mContacts;
+    private final double mTimestep;
+
+    public CEntity(World world) {
+        super(world, RADIUS, Color.WHITE);
+        mContacts = ((CWorld) world).getContacts();
+        mTimestep = 1D / mWorld.getContext().getTickFrequency();
+    }
+
+    @Override
+    public void update() {
+        int slot = getSlot();
+        double ax = mContacts.getX(slot), ay = mContacts.getY(slot);
+        double vx = (mCurrentPosition.mX - mPastPosition.mX) * DAMP + ax * mTimestep * mTimestep;
+        double vy = (mCurrentPosition.mY - mPastPosition.mY) * DAMP + ay * mTimestep * mTimestep;
+        mFuturePosition.set(mCurrentPosition.mX + vx, mCurrentPosition.mY + vy);
+    }
+
+    @Override
+    public void finish() {
+        boundCheck(DAMP);
+        super.finish();
+    }
+}
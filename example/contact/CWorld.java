@@ -0,0 +1,60 @@
+package example.contact;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import net.popsim.src.simu.*;
+import net.popsim.src.simu.force.PairInteraction;
+
+/**
+ * Discs that push apart where they overlap, like a soft granular material. Each overlap is worked out once and pushes
+ * both discs.
+ */
+public class CWorld extends World {
+
+    private final PairInteraction mContacts;
+
+    public CWorld(Simulation simulation, Context context) {
+        super(simulation, context);
+        mContacts = addPairInteraction(2 * CEntity.RADIUS, (a, ax, ay, b, bx, by, out) -> {
+            double dx = ax - bx, dy = ay - by;
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if (distance == 0)
+                return;
+            // Spring force proportional to the overlap, along the line between the centers
+            double push = CEntity.STIFFNESS * (2 * CEntity.RADIUS - distance) / distance;
+            out.add(a, push * dx, push * dy);
+            out.add(b, -push * dx, -push * dy);
+        });
+    }
+
+    @Override
+    public void init() {
+        for (int i = 0; i < 8192; i++) {
+            CEntity ne = new CEntity(this);
+            ne.setPosition(getWidth() / 2 + mRng.nextGaussian() * 64, getHeight() / 2 + mRng.nextGaussian() * 64);
+            spawnEntity(ne);
+        }
+        super.init();
+    }
+
+    @Override
+    public void render(GraphicsContext gfx) {
+        clear(gfx);
+        super.render(gfx);
+    }
+
+    @Override
+    public void render(GraphicsContext gfx, Snapshot snapshot) {
+        clear(gfx);
+        super.render(gfx, snapshot);
+    }
+
+    private void clear(GraphicsContext gfx) {
+        gfx.setFill(Color.BLACK);
+        gfx.fillRect(0, 0, getWidth(), getHeight());
+    }
+
+    public PairInteraction getContacts() {
+        return mContacts;
+    }
+}
@@ -0,0 +1,38 @@
+package example.field;
+
+import example.PositionEntity;
+import javafx.scene.paint.Color;
+import net.popsim.src.simu.World;
+import net.popsim.src.simu.force.ForceField;
+
+public class FEntity extends PositionEntity {
+
+    public static final double DAMP = 0.99;
+    public static final double STRENGTH = 8;
+
+    private final ForceField mRepulsion;
+    private final double mTimestep;
+
+    public FEntity(World world) {
+        super(world, 1, Color.WHITE);
+        mRepulsion = ((FWorld) world).getRepulsion();
+        mTimestep = 1D / mWorld.getContext().getTickFrequency();
+    }
+
+    @Override
+    public void update() {
+        int slot = getSlot();
+        double ax = STRENGTH * mRepulsion.getForceX(slot);
+        double ay = STRENGTH * mRepulsion.getForceY(slot);
+        // Dampen and fix to actual velocity, then accelerate
+        double vx = (mCurrentPosition.mX - mPastPosition.mX) * DAMP / mTimestep + ax * mTimestep;
+        double vy = (mCurrentPosition.mY - mPastPosition.mY) * DAMP / mTimestep + ay * mTimestep;
+        mFuturePosition.set(mFuturePosition.mX + vx * mTimestep, mFuturePosition.mY + vy * mTimestep);
+    }
+
+    @Override
+    public void finish() {
+        boundCheck(DAMP);
+        super.finish();
+    }
+}
@@ -0,0 +1,50 @@
+package example.field;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import net.popsim.src.simu.*;
+import net.popsim.src.simu.force.ForceField;
+
+/**
+ * The repel example with its forces worked out by a {@link ForceField} rather than by each entity.
+ */
+public class FWorld extends World {
+
+    private final ForceField mRepulsion;
+
+    public FWorld(Simulation simulation, Context context) {
+        super(simulation, context);
+        mRepulsion = addForceField(FEntity.class, distance2 -> 1 / distance2);
+    }
+
+    @Override
+    public void init() {
+        for (int i = 0; i < 16384; i++) {
+            FEntity ne = new FEntity(this);
+            ne.setPosition(mRng.nextDouble() * getWidth(), mRng.nextDouble() * getHeight());
+            spawnEntity(ne);
+        }
+        super.init();
+    }
+
+    @Override
+    public void render(GraphicsContext gfx) {
+        clear(gfx);
+        super.render(gfx);
+    }
+
+    @Override
+    public void render(GraphicsContext gfx, Snapshot snapshot) {
+        clear(gfx);
+        super.render(gfx, snapshot);
+    }
+
+    private void clear(GraphicsContext gfx) {
+        gfx.setFill(Color.BLACK);
+        gfx.fillRect(0, 0, getWidth(), getHeight());
+    }
+
+    public ForceField getRepulsion() {
+        return mRepulsion;
+    }
+}
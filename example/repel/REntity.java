@@ -2,12 +2,14 @@ package example.repel;
 
 import example.PositionEntity;
 import javafx.scene.paint.Color;
-import net.popsim.src.simu.Entity;
 import net.popsim.src.simu.World;
+import net.popsim.src.simu.force.PairInteraction;
 import net.popsim.src.util.Vector;
 
-import java.util.Iterator;
-
+/**
+ * A particle pushed away from every other within range. Lives in an {@link RWorld}, which works out the push once for
+ * each pair.
+ */
 public class REntity extends PositionEntity {
 
     public static final double DAMP = 0.99;
@@ -15,37 +17,36 @@ public class REntity extends PositionEntity {
     public static final double RANGE2 = RANGE * RANGE;
 
     public final Vector mA;
+    private final PairInteraction mRepulsion;
     private double mTimestep;
 
     public REntity(World world) {
         super(world, 1.5, Color.WHITE);
         mA = new Vector();
+        mRepulsion = ((RWorld) world).getRepulsion();
         mTimestep = 1D / mWorld.getContext().getTickFrequency();
     }
 
     @Override
     public void update() {
-        Vector p = new Vector();
-        Iterator<Entity> it = mWorld.getEntityIterator();
-        while (it.hasNext()) {
-            Entity e = it.next();
-            if (e instanceof REntity && e != this) {
-                REntity me = (REntity) e;
-                Vector diff = mCurrentPosition.subtract(me.mCurrentPosition, new Vector());
-                double mag2 = diff.squareMag();
-                if (mag2 <= RANGE2) {
-                    while (mag2 == 0)
-                        mag2 = diff.set((mRng.nextDouble() - 0.5), (mRng.nextDouble() - 0.5)).squareMag();
-                    diff.multiply(1 / mag2, diff);
-                    p.add(diff, p);
-                }
-            }
+        int slot = getSlot();
+        double px = mRepulsion.getX(slot), py = mRepulsion.getY(slot);
+        // Neighbors right on top of us push in a random direction
+        for (int coincident = mRepulsion.getCount(slot); coincident > 0; coincident--) {
+            double dx, dy, mag2;
+            do {
+                dx = mRng.nextDouble() - 0.5;
+                dy = mRng.nextDouble() - 0.5;
+                mag2 = dx * dx + dy * dy;
+            } while (mag2 == 0);
+            px += dx / mag2;
+            py += dy / mag2;
         }
-        mA.add(p.multiply(512, p), mA);
-        Vector v = mCurrentPosition.subtract(mPastPosition, new Vector());
-        v.multiply(DAMP / mTimestep, v); // Dampen and fix to actual velocity
-        v.add(mA.multiply(mTimestep, p), v);
-        mFuturePosition.add(v.multiply(mTimestep, v), mFuturePosition);
+        mA.addLocal(512 * px, 512 * py);
+        Vector v = mCurrentPosition.subtract(mPastPosition, Vector.scratch(0));
+        v.multiplyLocal(DAMP / mTimestep); // Dampen and fix to actual velocity
+        v.addScaledLocal(mA, mTimestep);
+        mFuturePosition.addScaledLocal(v, mTimestep);
     }
 
     @Override
@@ -4,11 +4,25 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.input.*;
 import javafx.scene.paint.Color;
 import net.popsim.src.simu.*;
+import net.popsim.src.simu.force.PairAccumulator;
+import net.popsim.src.simu.force.PairInteraction;
+import net.popsim.src.util.IntColumn;
 
 public class RWorld extends World {
 
+    private final PairInteraction mRepulsion;
+    private final IntColumn mKindColumn;
+    // Which kinds in the component store are REntities, subclasses included
+    private boolean[] mKinds;
+
     public RWorld(Simulation simulation, Context context) {
         super(simulation, context);
+        mKindColumn = getComponents().getKindColumn();
+        mKinds = getComponents().kindsOf(REntity.class);
+        // Neighbor lists save searching the index every tick, when there is one to search
+        if (getSpatialIndex() != null && context.getNeighborSkin() > 0)
+            mRepulsion = addPairInteraction(addNeighborList(REntity.RANGE), this::repel);
+        else mRepulsion = addPairInteraction(REntity.RANGE, this::repel);
     }
 
     @Override
@@ -19,16 +33,63 @@ public class RWorld extends World {
             spawnEntity(ne);
         }
         System.out.println("hi - from A");
-        mSimulation.getCanvas().setOnKeyTyped(this::handle);
-        mSimulation.getCanvas().setOnMouseClicked(this::handle);
+        if (!mSimulation.isHeadless()) {
+            mSimulation.getCanvas().setOnKeyTyped(this::handle);
+            mSimulation.getCanvas().setOnMouseClicked(this::handle);
+        }
         super.init();
     }
 
+    @Override
+    public void update() {
+        // Entities spawned since the last tick may be of new kinds, and pairs are worked out first thing in the update
+        if (mKinds.length <= getComponents().getKindCount())
+            mKinds = getComponents().kindsOf(REntity.class);
+        super.update();
+    }
+
     @Override
     public void render(GraphicsContext gfx) {
+        clear(gfx);
+        super.render(gfx);
+    }
+
+    @Override
+    public void render(GraphicsContext gfx, Snapshot snapshot) {
+        clear(gfx);
+        super.render(gfx, snapshot);
+    }
+
+    private void clear(GraphicsContext gfx) {
         gfx.setFill(Color.BLACK);
         gfx.fillRect(0, 0, getWidth(), getHeight());
-        super.render(gfx);
+    }
+
+    /**
+     * @return The summed push on each REntity from the others in range, with a count of those right on top of it.
+     */
+    public PairInteraction getRepulsion() {
+        return mRepulsion;
+    }
+
+    /**
+     * Pushes two REntities apart, harder the closer they are. A pair at the same position has no direction to push in,
+     * so it is only counted, and each entity picks a random direction for itself.
+     */
+    private void repel(int a, double ax, double ay, int b, double bx, double by, PairAccumulator out) {
+        if (!mKinds[mKindColumn.get(a)] || !mKinds[mKindColumn.get(b)])
+            return;
+        double dx = ax - bx;
+        double dy = ay - by;
+        double mag2 = dx * dx + dy * dy;
+        if (mag2 == 0) {
+            out.count(a);
+            out.count(b);
+        } else {
+            double px = dx / mag2, py = dy / mag2;
+            out.add(a, px, py);
+            out.add(b, -px, -py);
+        }
     }
 
     public void handle(KeyEvent event) {
@@ -44,11 +105,13 @@ public class RWorld extends World {
     }
 
     public void handle(MouseEvent event) {
-        if (event.getButton() == MouseButton.PRIMARY) {
+        // Drags pan the viewport rather than spawn
+        if (event.getButton() == MouseButton.PRIMARY && event.isStillSincePress()) {
+            Viewport viewport = mSimulation.getViewport();
             REntity ne = new REntity(this);
-            ne.setPosition(event.getX(), event.getY());
+            ne.setPosition(viewport.toWorldX(event.getX()), viewport.toWorldY(event.getY()));
             spawnEntity(ne);
-            System.out.println(mEntities.size());
+            System.out.println(getEntityCount());
         }
     }
 }
\ No newline at end of file
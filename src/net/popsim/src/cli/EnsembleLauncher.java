@@ -0,0 +1,37 @@
+package net.popsim.src.cli;
+
+import net.popsim.src.ensemble.Ensemble;
+import net.popsim.src.ensemble.EnsembleRunner;
+import net.popsim.src.ensemble.ResultTable;
+import net.popsim.src.simu.ContextHelper;
+import net.popsim.src.util.config.JsonConfigLoader;
+
+import java.io.File;
+
+/**
+ * Runs a parameter sweep from the command line.
+ * <br><tt>EnsembleLauncher &lt;ensemble config&gt;</tt>
+ */
+public class EnsembleLauncher {
+
+    private static final JsonConfigLoader CONFIG_LOADER = new JsonConfigLoader(Ensemble.class);
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: EnsembleLauncher <ensemble config>");
+            System.exit(2);
+        }
+        try {
+            ContextHelper.setupOutput();
+            ContextHelper.setupCompiler();
+            File file = new File(args[0]);
+            System.out.println("Loading ensemble " + file.getAbsolutePath());
+            Ensemble ensemble = (Ensemble) CONFIG_LOADER.load(file);
+            new EnsembleRunner(ensemble, new ResultTable(ensemble.getResults())).run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,89 @@
+package net.popsim.src.cli;
+
+import net.popsim.src.simu.*;
+import net.popsim.src.util.config.Data;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a simulation from the command line without a window or the FX toolkit.
+ * <br><tt>HeadlessLauncher &lt;config&gt; [--ticks N] [--time SECONDS] [--fast]</tt>
+ */
+public class HeadlessLauncher {
+
+    private static final String USAGE = "Usage: HeadlessLauncher <config> [--ticks N] [--time SECONDS] [--fast]";
+
+    public static void main(String[] args) {
+        try {
+            new HeadlessLauncher(args).run();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private File mConfigFile;
+    private long mTickLimit;
+    private long mTimeLimit;
+    private boolean mUnthrottled;
+
+    public HeadlessLauncher(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--ticks":
+                    mTickLimit = parseLong(args, ++i);
+                    break;
+                case "--time":
+                    mTimeLimit = parseLong(args, ++i);
+                    break;
+                case "--fast":
+                    mUnthrottled = true;
+                    break;
+                default:
+                    if (mConfigFile != null || args[i].startsWith("--"))
+                        throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+                    mConfigFile = new File(args[i]);
+            }
+        }
+        if (mConfigFile == null)
+            throw new IllegalArgumentException("No config file given");
+        if (mTickLimit <= 0 && mTimeLimit <= 0)
+            throw new IllegalArgumentException("Either a tick limit or a time limit is required");
+    }
+
+    public void run() throws Exception {
+        ContextHelper.setupOutput();
+        ContextHelper.setupCompiler();
+        System.out.println("Making context with " + mConfigFile.getAbsolutePath());
+        Context context = ContextHelper.makeContext(mConfigFile);
+        Simulation simulation = new Simulation(context, true);
+        simulation.setUnthrottled(mUnthrottled);
+        simulation.setTickLimit(mTickLimit);
+        simulation.setTimeLimit(mTimeLimit, TimeUnit.SECONDS);
+        long start = System.nanoTime();
+        simulation.run();
+        double elapsed = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+        long ticks = simulation.getWorld().getTicks();
+        System.out.printf("Finished %d ticks in %.3fs (%.1fHz)\n", ticks, elapsed, ticks / elapsed);
+        Data metrics = new Data();
+        simulation.getWorld().report(metrics);
+        for (String key : metrics.keySet())
+            System.out.printf("  %s: %s\n", key, metrics.get(key, null));
+    }
+
+    private static long parseLong(String[] args, int index) {
+        if (index >= args.length)
+            throw new IllegalArgumentException("Missing value for " + args[index - 1]);
+        try {
+            return Long.parseLong(args[index]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + args[index]);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package net.popsim.src.ensemble;
+
+import com.google.gson.*;
+import com.google.gson.annotations.Expose;
+import com.google.gson.annotations.SerializedName;
+import net.popsim.src.simu.Context;
+import net.popsim.src.simu.ContextHelper;
+import net.popsim.src.util.config.JsonConfigLoader;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * A set of headless runs made by sweeping parameters of a base context config.
+ * Every combination of the listed parameter values becomes one run, optionally repeated over a number of seeds.
+ */
+public class Ensemble implements JsonConfigLoader.Target {
+
+    private static final String KEY_SEED = "Random seed";
+    private static final String KEY_WORKERS = "Worker threads";
+
+    @Expose
+    @SerializedName("Base config")
+    private String mBaseConfigName;
+    private File mBaseConfig;
+
+    @Expose
+    @SerializedName("Parameters")
+    private JsonObject mParameters;
+
+    @Expose
+    @SerializedName("Seeds")
+    private int mSeeds;
+
+    @Expose
+    @SerializedName("Ticks")
+    private long mTicks;
+
+    @Expose
+    @SerializedName("Parallel runs")
+    private int mParallelRuns;
+
+    @Expose
+    @SerializedName("Results")
+    private String mResultsName;
+    private File mResults;
+
+    public Ensemble() {
+        // Default values
+        mBaseConfigName = "";
+        mParameters = new JsonObject();
+        mSeeds = 0;
+        mTicks = 1000;
+        mParallelRuns = Runtime.getRuntime().availableProcessors();
+        mResultsName = "results.csv";
+    }
+
+    @Override
+    public void postLoad() throws Exception {
+        // Base config
+        mBaseConfig = new File(mBaseConfigName);
+        if (!mBaseConfig.isFile())
+            throw new Exception("Base config does not exist: " + mBaseConfig.getAbsolutePath());
+        // Parameters
+        for (Map.Entry<String, JsonElement> entry : mParameters.entrySet())
+            if (!entry.getValue().isJsonArray() || entry.getValue().getAsJsonArray().size() == 0)
+                throw new Exception("Parameter should be a non-empty list of values: " + entry.getKey());
+        if (mSeeds > 0 && mParameters.has(KEY_SEED))
+            throw new Exception("Seeds cannot be combined with a list of random seeds");
+        // Run limits
+        if (mTicks <= 0)
+            throw new Exception("Ticks should be positive");
+        if (mParallelRuns <= 0)
+            throw new Exception("Parallel runs should be positive");
+        mResults = new File(mResultsName);
+    }
+
+    /**
+     * Expands the ensemble into its runs, making the context for each one.
+     *
+     * @return Every run in the ensemble.
+     * @throws JsonConfigLoader.ConfigException if the base config or any variant of it cannot be loaded.
+     */
+    public List<Run> expand() throws JsonConfigLoader.ConfigException {
+        JsonObject base = ContextHelper.readContext(mBaseConfig).getAsJsonObject();
+        // Share the processors between the runs going at once, unless told otherwise
+        if (!base.has(KEY_WORKERS) && !mParameters.has(KEY_WORKERS))
+            base.addProperty(KEY_WORKERS, Math.max(1, Runtime.getRuntime().availableProcessors() / mParallelRuns));
+        // Seeds are just another parameter
+        JsonObject parameters = new JsonObject();
+        for (Map.Entry<String, JsonElement> entry : mParameters.entrySet())
+            parameters.add(entry.getKey(), entry.getValue());
+        if (mSeeds > 0) {
+            JsonArray seeds = new JsonArray();
+            for (int i = 1; i <= mSeeds; i++)
+                seeds.add(new JsonPrimitive(Integer.toString(i)));
+            parameters.add(KEY_SEED, seeds);
+        }
+        List<Map<String, JsonElement>> combinations = new ArrayList<>();
+        combinations.add(new LinkedHashMap<>());
+        for (Map.Entry<String, JsonElement> entry : parameters.entrySet()) {
+            List<Map<String, JsonElement>> next = new ArrayList<>();
+            for (Map<String, JsonElement> combination : combinations)
+                for (JsonElement value : entry.getValue().getAsJsonArray()) {
+                    Map<String, JsonElement> c = new LinkedHashMap<>(combination);
+                    c.put(entry.getKey(), value);
+                    next.add(c);
+                }
+            combinations = next;
+        }
+        List<Run> runs = new ArrayList<>(combinations.size());
+        for (Map<String, JsonElement> combination : combinations) {
+            JsonObject config = new JsonObject();
+            for (Map.Entry<String, JsonElement> entry : base.entrySet())
+                config.add(entry.getKey(), entry.getValue());
+            Map<String, String> values = new LinkedHashMap<>();
+            for (Map.Entry<String, JsonElement> entry : combination.entrySet()) {
+                config.add(entry.getKey(), entry.getValue());
+                JsonElement v = entry.getValue();
+                values.put(entry.getKey(), v.isJsonPrimitive()? v.getAsString() : v.toString());
+            }
+            runs.add(new Run(runs.size(), values, ContextHelper.makeContext(config)));
+        }
+        return runs;
+    }
+
+    public long getTicks() {
+        return mTicks;
+    }
+
+    public int getParallelRuns() {
+        return mParallelRuns;
+    }
+
+    public File getResults() {
+        return mResults;
+    }
+
+    /**
+     * One expanded run of an ensemble.
+     */
+    public static class Run {
+
+        private final int mIndex;
+        private final Map<String, String> mParameters;
+        private final Context mContext;
+
+        public Run(int index, Map<String, String> parameters, Context context) {
+            mIndex = index;
+            mParameters = Collections.unmodifiableMap(parameters);
+            mContext = context;
+        }
+
+        public int getIndex() {
+            return mIndex;
+        }
+
+        /**
+         * @return The swept parameter values of this run, keyed by config name.
+         */
+        public Map<String, String> getParameters() {
+            return mParameters;
+        }
+
+        public Context getContext() {
+            return mContext;
+        }
+    }
+}
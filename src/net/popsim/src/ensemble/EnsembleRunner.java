@@ -0,0 +1,82 @@
+package net.popsim.src.ensemble;
+
+import net.popsim.src.simu.Simulation;
+import net.popsim.src.simu.TickProfiler;
+import net.popsim.src.simu.World;
+import net.popsim.src.util.Histogram;
+import net.popsim.src.util.config.Data;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs every run of an ensemble headless and as fast as possible, a bounded number at a time.
+ * A run that fails is recorded with its error rather than stopping the others.
+ */
+public class EnsembleRunner {
+
+    private final Ensemble mEnsemble;
+    private final ResultTable mResults;
+
+    public EnsembleRunner(Ensemble ensemble, ResultTable results) {
+        mEnsemble = ensemble;
+        mResults = results;
+    }
+
+    public void run() throws Exception {
+        List<Ensemble.Run> runs = mEnsemble.expand();
+        int parallel = Math.min(mEnsemble.getParallelRuns(), runs.size());
+        System.out.printf("Running ensemble of %d runs, %d at a time\n", runs.size(), parallel);
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(parallel, r -> new Thread(r, "Ensemble Run " + count.incrementAndGet()));
+        try {
+            List<Future<?>> futures = new ArrayList<>(runs.size());
+            for (Ensemble.Run run : runs)
+                futures.add(pool.submit(() -> execute(run)));
+            for (Future<?> f : futures)
+                f.get();
+        } catch (InterruptedException e) {
+            throw new Exception("Interrupted while running ensemble", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        System.out.printf("Ensemble finished: %d results in %s\n", mResults.size(), mEnsemble.getResults().getAbsolutePath());
+    }
+
+    private void execute(Ensemble.Run run) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("Run", run.getIndex());
+        row.putAll(run.getParameters());
+        row.put("Seed", run.getContext().getRngSeed());
+        try {
+            Simulation simulation = new Simulation(run.getContext(), true);
+            simulation.setUnthrottled(true);
+            simulation.setTickLimit(mEnsemble.getTicks());
+            long start = System.nanoTime();
+            simulation.run();
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            World world = simulation.getWorld();
+            Histogram tick = simulation.getProfiler().getHistogram(TickProfiler.Phase.TICK);
+            row.put("Ticks", world.getTicks());
+            row.put("Seconds", String.format("%.3f", elapsed));
+            row.put("Hz", String.format("%.1f", world.getTicks() / elapsed));
+            row.put("Tick p50 (ms)", String.format("%.3f", tick.getValueAtPercentile(50) / 1e6));
+            row.put("Tick p99 (ms)", String.format("%.3f", tick.getValueAtPercentile(99) / 1e6));
+            Data metrics = new Data();
+            world.report(metrics);
+            for (String key : metrics.keySet())
+                row.put(key, metrics.get(key, null));
+        } catch (Exception e) {
+            System.err.println("Run " + run.getIndex() + " failed");
+            e.printStackTrace();
+            row.put("Error", e.toString());
+        }
+        try {
+            mResults.add(row);
+        } catch (Exception e) {
+            System.err.println("Unable to record result of run " + run.getIndex());
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package net.popsim.src.ensemble;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A table of run results shared between runs, kept on disk as CSV.
+ * The file is rewritten whenever a row is added, so it is complete up to the last finished run.
+ */
+public class ResultTable {
+
+    private final File mFile;
+    private final List<Map<String, Object>> mRows;
+    private final Set<String> mColumns;
+
+    public ResultTable(File file) {
+        mFile = file;
+        mRows = new ArrayList<>();
+        mColumns = new LinkedHashSet<>();
+    }
+
+    /**
+     * Adds a row to the table. New keys become new columns.
+     *
+     * @param row the values of the row, keyed by column
+     *
+     * @throws IOException if the table cannot be written.
+     */
+    public synchronized void add(Map<String, Object> row) throws IOException {
+        mRows.add(new LinkedHashMap<>(row));
+        mColumns.addAll(row.keySet());
+        write();
+    }
+
+    public synchronized int size() {
+        return mRows.size();
+    }
+
+    private void write() throws IOException {
+        try (PrintWriter out = new PrintWriter(new FileWriter(mFile))) {
+            out.println(join(new ArrayList<>(mColumns)));
+            for (Map<String, Object> row : mRows) {
+                List<Object> values = new ArrayList<>(mColumns.size());
+                for (String column : mColumns)
+                    values.add(row.get(column));
+                out.println(join(values));
+            }
+        }
+    }
+
+    private static String join(List<?> values) {
+        StringBuilder buf = new StringBuilder();
+        for (Object value : values) {
+            if (buf.length() > 0)
+                buf.append(',');
+            buf.append(escape(value));
+        }
+        return buf.toString();
+    }
+
+    private static String escape(Object value) {
+        if (value == null)
+            return "";
+        String s = value.toString();
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0)
+            return s;
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,81 @@
+package net.popsim.src.simu;
+
+import java.util.Arrays;
+
+/**
+ * All the entities of one exact class, kept together along with their slots. Maintained by the entity store at the
+ * tick boundary, so it is stable during a tick.
+ *
+ * @param <T> the class of entity
+ */
+public class Archetype<T extends Entity> {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Class<T> mType;
+    private Entity[] mEntities;
+    private int[] mSlots;
+    private int mSize;
+
+    Archetype(Class<T> type) {
+        mType = type;
+        mEntities = new Entity[INITIAL_CAPACITY];
+        mSlots = new int[INITIAL_CAPACITY];
+    }
+
+    public Class<T> getType() {
+        return mType;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        return (T) mEntities[index];
+    }
+
+    /**
+     * @param index the index of an entity in this archetype
+     *
+     * @return The slot of the entity in the world, for looking up its components.
+     */
+    public int getSlot(int index) {
+        return mSlots[index];
+    }
+
+    Entity[] getEntities() {
+        return mEntities;
+    }
+
+    void add(Entity e) {
+        if (mSize == mEntities.length) {
+            mEntities = Arrays.copyOf(mEntities, mSize * 2);
+            mSlots = Arrays.copyOf(mSlots, mSize * 2);
+        }
+        e.mArchetype = this;
+        e.mArchetypeIndex = mSize;
+        mEntities[mSize] = e;
+        mSlots[mSize] = e.mSlot;
+        mSize++;
+    }
+
+    void remove(Entity e) {
+        int index = e.mArchetypeIndex;
+        Entity last = mEntities[--mSize];
+        mEntities[index] = last;
+        mSlots[index] = last.mSlot;
+        last.mArchetypeIndex = index;
+        mEntities[mSize] = null;
+        e.mArchetype = null;
+        e.mArchetypeIndex = -1;
+    }
+
+    /**
+     * Updates the recorded slot of an entity that the store moved.
+     */
+    void moved(Entity e) {
+        mSlots[e.mArchetypeIndex] = e.mSlot;
+    }
+}
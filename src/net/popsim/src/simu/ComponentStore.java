@@ -0,0 +1,248 @@
+package net.popsim.src.simu;
+
+import net.popsim.src.util.DoubleColumn;
+import net.popsim.src.util.IntColumn;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps commonly read entity state in primitive columns indexed by entity slot, so loops over many entities scan
+ * columns instead of chasing references. Entities opt in by writing their own row, and the entity store moves rows
+ * along with entities when slots change.
+ * <br>Besides the current position, size and color that others read, there are past and future position columns so
+ * an entity can keep its whole kinematic state here rather than in objects of its own. The columns are kept either on
+ * the heap or in native memory, depending on {@link Storage}.
+ * <br>A row belongs to one entity and is only written by it (or by the store at the tick boundary), so entities may
+ * write their row during parallel phases.
+ */
+public class ComponentStore {
+
+    /**
+     * Kind of a row that has no components.
+     */
+    public static final int NO_KIND = 0;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Where the columns are kept.
+     */
+    public enum Storage {
+        /**
+         * In Java arrays.
+         */
+        HEAP("Heap"),
+        /**
+         * In direct buffers outside the garbage collected heap.
+         */
+        OFF_HEAP("Off-heap");
+
+        private final String mName;
+
+        Storage(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public static Storage fromName(String name) {
+            for (Storage s : values())
+                if (s.mName.equalsIgnoreCase(name))
+                    return s;
+            throw new IllegalArgumentException("Unknown component storage: " + name);
+        }
+
+        private DoubleColumn doubles() {
+            return this == HEAP? DoubleColumn.heap(INITIAL_CAPACITY) : DoubleColumn.direct(INITIAL_CAPACITY);
+        }
+
+        private IntColumn ints() {
+            return this == HEAP? IntColumn.heap(INITIAL_CAPACITY) : IntColumn.direct(INITIAL_CAPACITY);
+        }
+    }
+
+    private final Storage mStorage;
+    private final Map<Class<?>, Integer> mKinds;
+    private final DoubleColumn mX, mY;
+    private final DoubleColumn mPastX, mPastY;
+    private final DoubleColumn mFutureX, mFutureY;
+    private final DoubleColumn mSize;
+    private final IntColumn mColor;
+    private final IntColumn mKind;
+    private final DoubleColumn[] mDoubles;
+    private final IntColumn[] mInts;
+
+    public ComponentStore(Storage storage) {
+        mStorage = storage;
+        mKinds = new HashMap<>();
+        mDoubles = new DoubleColumn[] {
+                mX = storage.doubles(), mY = storage.doubles(),
+                mPastX = storage.doubles(), mPastY = storage.doubles(),
+                mFutureX = storage.doubles(), mFutureY = storage.doubles(),
+                mSize = storage.doubles()
+        };
+        mInts = new IntColumn[] {mColor = storage.ints(), mKind = storage.ints()};
+    }
+
+    /**
+     * Looks up the kind number of a class of entity. Kinds let loops over the columns filter by type without touching
+     * the entities themselves.
+     *
+     * @param type the class of entity
+     *
+     * @return A positive number unique to the class within this store.
+     */
+    public synchronized int kindOf(Class<? extends Entity> type) {
+        Integer kind = mKinds.get(type);
+        if (kind == null)
+            mKinds.put(type, kind = mKinds.size() + 1);
+        return kind;
+    }
+
+    /**
+     * Looks up which kinds are a class of entity or one of its subclasses.
+     *
+     * @param type the class of entity
+     *
+     * @return A table, indexed by kind, of whether each kind looked up so far is the class or a subclass of it. Kinds
+     * looked up later are past its end, so callers should look again when they meet one.
+     */
+    public synchronized boolean[] kindsOf(Class<? extends Entity> type) {
+        boolean[] kinds = new boolean[mKinds.size() + 1];
+        mKinds.forEach((c, kind) -> kinds[kind] = type.isAssignableFrom(c));
+        return kinds;
+    }
+
+    /**
+     * @return The number of kinds looked up so far, which is also the largest kind.
+     */
+    public synchronized int getKindCount() {
+        return mKinds.size();
+    }
+
+    public Storage getStorage() {
+        return mStorage;
+    }
+
+    /**
+     * Writes a whole row, with the entity at rest: its past, current and future positions are the same.
+     *
+     * @param slot  the slot of the entity
+     * @param kind  the kind of the entity, from {@link #kindOf(Class)}
+     * @param x     x coordinate
+     * @param y     y coordinate
+     * @param size  size, such as a radius
+     * @param color color as ARGB
+     */
+    public void set(int slot, int kind, double x, double y, double size, int color) {
+        mKind.set(slot, kind);
+        mX.set(slot, x);
+        mY.set(slot, y);
+        mPastX.set(slot, x);
+        mPastY.set(slot, y);
+        mFutureX.set(slot, x);
+        mFutureY.set(slot, y);
+        mSize.set(slot, size);
+        mColor.set(slot, color);
+    }
+
+    public void setPosition(int slot, double x, double y) {
+        mX.set(slot, x);
+        mY.set(slot, y);
+    }
+
+    public void setPastPosition(int slot, double x, double y) {
+        mPastX.set(slot, x);
+        mPastY.set(slot, y);
+    }
+
+    public void setFuturePosition(int slot, double x, double y) {
+        mFutureX.set(slot, x);
+        mFutureY.set(slot, y);
+    }
+
+    public void setSize(int slot, double size) {
+        mSize.set(slot, size);
+    }
+
+    public void setColor(int slot, int color) {
+        mColor.set(slot, color);
+    }
+
+    public int getKind(int slot) {
+        return mKind.get(slot);
+    }
+
+    public double getX(int slot) {
+        return mX.get(slot);
+    }
+
+    public double getY(int slot) {
+        return mY.get(slot);
+    }
+
+    public double getPastX(int slot) {
+        return mPastX.get(slot);
+    }
+
+    public double getPastY(int slot) {
+        return mPastY.get(slot);
+    }
+
+    public double getFutureX(int slot) {
+        return mFutureX.get(slot);
+    }
+
+    public double getFutureY(int slot) {
+        return mFutureY.get(slot);
+    }
+
+    public double getSize(int slot) {
+        return mSize.get(slot);
+    }
+
+    public int getColor(int slot) {
+        return mColor.get(slot);
+    }
+
+    /**
+     * @return The current x column, for loops that read many rows.
+     */
+    public DoubleColumn getXColumn() {
+        return mX;
+    }
+
+    /**
+     * @return The current y column, for loops that read many rows.
+     */
+    public DoubleColumn getYColumn() {
+        return mY;
+    }
+
+    /**
+     * @return The kind column, for loops that read many rows.
+     */
+    public IntColumn getKindColumn() {
+        return mKind;
+    }
+
+    void ensureCapacity(int capacity) {
+        for (DoubleColumn c : mDoubles)
+            c.ensureCapacity(capacity);
+        for (IntColumn c : mInts)
+            c.ensureCapacity(capacity);
+    }
+
+    void move(int from, int to) {
+        for (DoubleColumn c : mDoubles)
+            c.move(from, to);
+        for (IntColumn c : mInts)
+            c.move(from, to);
+    }
+
+    void clear(int slot) {
+        mKind.set(slot, NO_KIND);
+    }
+}
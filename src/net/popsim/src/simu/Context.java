@@ -2,8 +2,10 @@ package net.popsim.src.simu;
 
 import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
+import net.popsim.src.simu.spatial.SpatialIndex;
 import net.popsim.src.util.Compiler;
 import net.popsim.src.util.config.JsonConfigLoader;
+import net.popsim.src.util.random.Rng;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -12,16 +14,36 @@ import java.util.concurrent.TimeUnit;
 
 public class Context implements JsonConfigLoader.Target {
 
+    /**
+     * The canvas size used when the viewport size is left at zero, so a huge world does not get a huge canvas.
+     */
+    public static final int DEFAULT_VIEWPORT_WIDTH = 1920;
+    public static final int DEFAULT_VIEWPORT_HEIGHT = 1080;
+
     @Expose
     @SerializedName("Update frequency")
     private long mTickFrequency;
     private long mTickInterval;
 
+    @Expose
+    @SerializedName("Tick policy")
+    private String mTickPolicyName;
+    private TickGovernor.Policy mTickPolicy;
+
+    @Expose
+    @SerializedName("Max catch-up ticks")
+    private int mMaxCatchUpTicks;
+
     @Expose
     @SerializedName("Random seed")
     private String mRandomSeedString;
     private long mRngSeed;
 
+    @Expose
+    @SerializedName("Random generator")
+    private String mRngTypeName;
+    private Rng.Type mRngType;
+
     @Expose
     @SerializedName("World dimensions")
     private int[] mWorldSize;
@@ -31,12 +53,113 @@ public class Context implements JsonConfigLoader.Target {
     private String mWorldClassName;
     private Class<? extends World> mWorldClass;
 
+    @Expose
+    @SerializedName("Worker threads")
+    private int mWorkerThreads;
+
+    @Expose
+    @SerializedName("Chunk size")
+    private int mChunkSize;
+
+    @Expose
+    @SerializedName("Load balancing")
+    private boolean mLoadBalancing;
+
+    @Expose
+    @SerializedName("Update partitioning")
+    private String mPartitioningName;
+    private WorldExecutor.Partitioning mPartitioning;
+
+    @Expose
+    @SerializedName("Tiles")
+    private int[] mTiles;
+
+    @Expose
+    @SerializedName("Tile halo")
+    private double mTileHalo;
+
+    @Expose
+    @SerializedName("Component storage")
+    private String mComponentStorageName;
+    private ComponentStore.Storage mComponentStorage;
+
+    @Expose
+    @SerializedName("Spatial index")
+    private String mSpatialIndexName;
+    private SpatialIndex.Type mSpatialIndex;
+
+    @Expose
+    @SerializedName("Spatial cell size")
+    private double mSpatialCellSize;
+
+    @Expose
+    @SerializedName("Spatial leaf size")
+    private int mSpatialLeafSize;
+
+    @Expose
+    @SerializedName("Neighbor skin")
+    private double mNeighborSkin;
+
+    @Expose
+    @SerializedName("Force opening angle")
+    private double mForceOpeningAngle;
+
+    @Expose
+    @SerializedName("Exact forces")
+    private boolean mExactForces;
+
+    @Expose
+    @SerializedName("Lockstep rendering")
+    private boolean mLockstepRendering;
+
+    @Expose
+    @SerializedName("Batched rendering")
+    private boolean mBatchedRendering;
+
+    @Expose
+    @SerializedName("Viewport size")
+    private int[] mViewportSize;
+
+    @Expose
+    @SerializedName("Viewport margin")
+    private double mViewportMargin;
+
+    @Expose
+    @SerializedName("Heatmap threshold")
+    private int mHeatmapThreshold;
+
+    @Expose
+    @SerializedName("Heatmap cell size")
+    private int mHeatmapCellSize;
+
     public Context() {
         // Default values
         mTickFrequency = 60; // 60 Hz
+        mTickPolicyName = TickGovernor.Policy.CATCH_UP.getName();
+        mMaxCatchUpTicks = 5;
         mRandomSeedString = "";
+        mRngTypeName = Rng.Type.COUNTER.getName();
         mWorldSize = new int[] {100, 100};
         mWorldClassName = World.class.getName();
+        mWorkerThreads = 0; // One per processor
+        mChunkSize = 0; // Picked from the number of entities
+        mLoadBalancing = true;
+        mPartitioningName = WorldExecutor.Partitioning.SLOTS.getName();
+        mTiles = new int[] {0, 0}; // Picked from the number of threads
+        mTileHalo = 64;
+        mComponentStorageName = ComponentStore.Storage.HEAP.getName();
+        mSpatialIndexName = SpatialIndex.Type.GRID.getName();
+        mSpatialCellSize = 64;
+        mSpatialLeafSize = 16;
+        mNeighborSkin = 16;
+        mForceOpeningAngle = 0.5;
+        mExactForces = false;
+        mLockstepRendering = false;
+        mBatchedRendering = true;
+        mViewportSize = new int[] {0, 0}; // As much of the world as fits a typical screen
+        mViewportMargin = 32;
+        mHeatmapThreshold = 100000;
+        mHeatmapCellSize = 2;
     }
 
     @Override
@@ -44,11 +167,75 @@ public class Context implements JsonConfigLoader.Target {
     public void postLoad() throws Exception {
         // Tick frequency
         mTickInterval = TimeUnit.SECONDS.toNanos(1) / mTickFrequency;
+        // Tick policy
+        try {
+            mTickPolicy = TickGovernor.Policy.fromName(mTickPolicyName);
+        } catch (IllegalArgumentException e) {
+            throw new Exception(e.getMessage(), e);
+        }
+        if (mMaxCatchUpTicks < 1)
+            throw new Exception("Max catch-up ticks should be at least 1");
         // Random seed
         mRngSeed = ContextHelper.parseSeed(mRandomSeedString);
+        try {
+            mRngType = Rng.Type.fromName(mRngTypeName);
+        } catch (IllegalArgumentException e) {
+            throw new Exception(e.getMessage(), e);
+        }
         // World dimensions
         if (mWorldSize.length != 2)
             throw new Exception("World dimensions should be two dimensional");
+        // Parallelism
+        if (mWorkerThreads < 0)
+            throw new Exception("Worker threads should not be negative");
+        if (mChunkSize < 0)
+            throw new Exception("Chunk size should not be negative");
+        try {
+            mPartitioning = WorldExecutor.Partitioning.fromName(mPartitioningName);
+        } catch (IllegalArgumentException e) {
+            throw new Exception(e.getMessage(), e);
+        }
+        if (mTiles.length != 2)
+            throw new Exception("Tiles should be two dimensional");
+        if (mTiles[0] < 0 || mTiles[1] < 0)
+            throw new Exception("Tiles should not be negative");
+        if (mTileHalo < 0)
+            throw new Exception("Tile halo should not be negative");
+        // Component storage
+        try {
+            mComponentStorage = ComponentStore.Storage.fromName(mComponentStorageName);
+        } catch (IllegalArgumentException e) {
+            throw new Exception(e.getMessage(), e);
+        }
+        // Spatial index
+        try {
+            mSpatialIndex = SpatialIndex.Type.fromName(mSpatialIndexName);
+        } catch (IllegalArgumentException e) {
+            throw new Exception(e.getMessage(), e);
+        }
+        if (mSpatialCellSize <= 0)
+            throw new Exception("Spatial cell size should be positive");
+        if (mSpatialLeafSize < 1)
+            throw new Exception("Spatial leaf size should be at least 1");
+        if (mNeighborSkin < 0)
+            throw new Exception("Neighbor skin should not be negative");
+        // Force fields
+        if (mForceOpeningAngle < 0)
+            throw new Exception("Force opening angle should not be negative");
+        // Rendering
+        if (mViewportSize.length != 2)
+            throw new Exception("Viewport size should be two dimensional");
+        if (mViewportSize[0] < 0 || mViewportSize[1] < 0)
+            throw new Exception("Viewport size should not be negative");
+        // The pixel buffers behind the canvas are indexed by int
+        if ((long) getViewportWidth() * getViewportHeight() > Integer.MAX_VALUE)
+            throw new Exception("Viewport size should be at most " + Integer.MAX_VALUE + " pixels");
+        if (mViewportMargin < 0)
+            throw new Exception("Viewport margin should not be negative");
+        if (mHeatmapThreshold < 0)
+            throw new Exception("Heatmap threshold should not be negative");
+        if (mHeatmapCellSize < 1)
+            throw new Exception("Heatmap cell size should be at least 1");
         // Store things to compile so we can one-hit KO
         List<Compiler.FileSource> toCompile = new ArrayList<>();
         // World class
@@ -73,10 +260,25 @@ public class Context implements JsonConfigLoader.Target {
         return mTickInterval;
     }
 
+    public TickGovernor.Policy getTickPolicy() {
+        return mTickPolicy;
+    }
+
+    public int getMaxCatchUpTicks() {
+        return mMaxCatchUpTicks;
+    }
+
     public long getRngSeed() {
         return mRngSeed;
     }
 
+    /**
+     * @return The kind of random generator entities get.
+     */
+    public Rng.Type getRngType() {
+        return mRngType;
+    }
+
     public int getWorldWidth() {
         return mWorldSize[0];
     }
@@ -88,4 +290,146 @@ public class Context implements JsonConfigLoader.Target {
     public Class<? extends World> getWorldClass() {
         return mWorldClass;
     }
+
+    /**
+     * @return The number of threads for the world's parallel phases, or zero for one per processor.
+     */
+    public int getWorkerThreads() {
+        return mWorkerThreads;
+    }
+
+    /**
+     * @return The number of entities per task in the world's parallel phases, or zero to pick automatically.
+     */
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    /**
+     * @return Whether the update phase is partitioned by measured cost rather than evenly by chunk size.
+     */
+    public boolean isLoadBalancing() {
+        return mLoadBalancing;
+    }
+
+    public WorldExecutor.Partitioning getPartitioning() {
+        return mPartitioning;
+    }
+
+    /**
+     * @return The most tiles across the world when partitioning by tiles, or zero to pick automatically. There are
+     * fewer if tiles would be narrower than the halo.
+     */
+    public int getTileColumns() {
+        return mTiles[0];
+    }
+
+    /**
+     * @return The most tiles down the world when partitioning by tiles, or zero to pick automatically. There are
+     * fewer if tiles would be shorter than the halo.
+     */
+    public int getTileRows() {
+        return mTiles[1];
+    }
+
+    /**
+     * @return The narrowest the strip around a tile whose entities it can see without leaving the tile can be. It is
+     * widened to take in the searches of any neighbor lists.
+     */
+    public double getTileHalo() {
+        return mTileHalo;
+    }
+
+    public ComponentStore.Storage getComponentStorage() {
+        return mComponentStorage;
+    }
+
+    public SpatialIndex.Type getSpatialIndex() {
+        return mSpatialIndex;
+    }
+
+    /**
+     * @return The side length of a cell in a grid index. Queries are quickest when it is close to their radius.
+     */
+    public double getSpatialCellSize() {
+        return mSpatialCellSize;
+    }
+
+    /**
+     * @return The most entities a leaf of a quadtree index holds before it splits.
+     */
+    public int getSpatialLeafSize() {
+        return mSpatialLeafSize;
+    }
+
+    /**
+     * @return The margin neighbor lists keep on top of their range, so they can be reused for a few ticks.
+     */
+    public double getNeighborSkin() {
+        return mNeighborSkin;
+    }
+
+    /**
+     * @return The Barnes-Hut opening angle theta for force fields. Zero is exact.
+     */
+    public double getForceOpeningAngle() {
+        return mForceOpeningAngle;
+    }
+
+    /**
+     * @return Whether force fields sum over every pair rather than using a tree.
+     */
+    public boolean isExactForces() {
+        return mExactForces;
+    }
+
+    public boolean isLockstepRendering() {
+        return mLockstepRendering;
+    }
+
+    /**
+     * @return Whether snapshots are rasterized into a pixel buffer off the FX thread, rather than drawn circle by
+     * circle on it. Lockstep rendering always draws entity by entity.
+     */
+    public boolean isBatchedRendering() {
+        return mBatchedRendering;
+    }
+
+    /**
+     * @return The width of the canvas, in pixels. A configured width of zero means {@value #DEFAULT_VIEWPORT_WIDTH}.
+     * Never more than the width of the world.
+     */
+    public int getViewportWidth() {
+        return Math.min(mViewportSize[0] == 0? DEFAULT_VIEWPORT_WIDTH : mViewportSize[0], getWorldWidth());
+    }
+
+    /**
+     * @return The height of the canvas, in pixels. A configured height of zero means {@value #DEFAULT_VIEWPORT_HEIGHT}.
+     * Never more than the height of the world.
+     */
+    public int getViewportHeight() {
+        return Math.min(mViewportSize[1] == 0? DEFAULT_VIEWPORT_HEIGHT : mViewportSize[1], getWorldHeight());
+    }
+
+    /**
+     * @return How far outside the view entities are still visited when rendering, to cover their size and how far they
+     * moved since the spatial index was built.
+     */
+    public double getViewportMargin() {
+        return mViewportMargin;
+    }
+
+    /**
+     * @return The number of entities above which snapshots are drawn as a density heatmap, or zero to never do so.
+     */
+    public int getHeatmapThreshold() {
+        return mHeatmapThreshold;
+    }
+
+    /**
+     * @return The size of a heatmap cell, in pixels.
+     */
+    public int getHeatmapCellSize() {
+        return mHeatmapCellSize;
+    }
 }
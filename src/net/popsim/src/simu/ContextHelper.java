@@ -1,5 +1,6 @@
 package net.popsim.src.simu;
 
+import com.google.gson.JsonElement;
 import net.popsim.src.util.Compiler;
 import net.popsim.src.util.config.JsonConfigLoader;
 import net.popsim.src.util.io.HeadedPrintStream;
@@ -86,6 +87,14 @@ public class ContextHelper {
         else return (Context) CONFIG_LOADER.load(file);
     }
 
+    public static JsonElement readContext(File file) throws JsonConfigLoader.ConfigException {
+        return CONFIG_LOADER.read(file);
+    }
+
+    public static Context makeContext(JsonElement json) throws JsonConfigLoader.ConfigException {
+        return (Context) CONFIG_LOADER.load(json);
+    }
+
     public static long parseSeed(String seed) {
         if (seed == null || seed.isEmpty())
             return System.currentTimeMillis();
@@ -2,18 +2,64 @@ package net.popsim.src.simu;
 
 import javafx.scene.canvas.GraphicsContext;
 
-import java.util.Random;
+import net.popsim.src.util.random.Rng;
 
 public abstract class Entity {
 
     protected final Context mContext;
     protected final World mWorld;
-    protected final Random mRng;
+    protected final Rng mRng;
+    private final long mId;
+    /**
+     * The number of entities spawned from this one's update so far, for deriving their ids. Only touched by the thread
+     * updating this entity.
+     */
+    int mChildren;
+    /**
+     * Index of this entity in its world's entity store, or -1 if it is not in one. Only changed by the store.
+     */
+    int mSlot;
+    /**
+     * The archetype holding this entity and its index there. Only changed by the store.
+     */
+    Archetype<?> mArchetype;
+    int mArchetypeIndex;
+    /**
+     * Index of this entity among the store's unpositioned entities, or -1 if it has a kind. Only changed by the store.
+     */
+    int mUnpositionedIndex;
 
     public Entity(World world) {
         mContext = world.getContext();
         mWorld = world;
-        mRng = new Random(world.getNewRandomSeed());
+        mId = world.newEntityId();
+        mRng = world.newRng(mId);
+        mSlot = -1;
+        mArchetypeIndex = -1;
+        mUnpositionedIndex = -1;
+    }
+
+    /**
+     * @return The id of this entity. Ids depend only on the order of spawns outside of updates and, for spawns from an
+     * update, on the spawning entity, so they are the same whatever the number of threads.
+     */
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * @return The index of this entity in the world's current tick, or -1 if it has not been spawned yet or was
+     * killed. Slots only change at the tick boundary.
+     */
+    public int getSlot() {
+        return mSlot;
+    }
+
+    /**
+     * Called at the tick boundary when the entity is added to the world, once it has a slot. A good place to write the
+     * entity's row in the world's component store.
+     */
+    public void onSpawn() {
     }
 
     public abstract void update();
@@ -21,4 +67,14 @@ public abstract class Entity {
     public abstract void finish();
 
     public abstract void render(GraphicsContext gfx);
+
+    /**
+     * Copies whatever is needed to draw this entity into a snapshot. Called on the update thread after the tick is
+     * finalized, so the entity may read its own state freely. Entities that add nothing are not drawn unless the
+     * simulation renders in lockstep.
+     *
+     * @param snapshot the snapshot being taken
+     */
+    public void snapshot(Snapshot snapshot) {
+    }
 }
@@ -0,0 +1,317 @@
+package net.popsim.src.simu;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Holds the entities of a world.
+ * Spawns and kills are buffered and only applied by {@link #commit()} at the tick boundary, so between commits the
+ * contents are stable and can be read from any thread without copying.
+ * <br>Each entity in the store knows its slot, so a kill is applied by moving the last entity into the freed slot.
+ * Buffering is lock-free, and a commit costs time proportional to the number of spawns and kills.
+ * <br>Entities are also grouped by exact class into archetypes, from which typed views are made.
+ * <br>Entities left without a kind once they have spawned are tracked too, since spatial indices leave them out.
+ */
+public class EntityStore {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * Number of entities in a block of pairwise iteration. Two blocks of entities should fit in cache together.
+     */
+    private static final int PAIR_BLOCK = 256;
+    private static final Comparator<Entity> BY_ID = Comparator.comparingLong(Entity::getId);
+
+    private final ComponentStore mComponents;
+    private final WorldExecutor mExecutor;
+    private Entity[] mEntities;
+    private int mSize;
+    private long mVersion;
+    private final Queue<Entity> mSpawns;
+    private final Queue<Entity> mKills;
+    private final List<Entity> mPending;
+    private final List<Entity> mView;
+    private final Map<Class<?>, Archetype<?>> mArchetypes;
+    private final List<Archetype<?>> mArchetypeList;
+    private final Map<Class<?>, EntityView<?>> mTypedViews;
+    private final List<Entity> mUnpositioned;
+    private final List<Entity> mUnpositionedView;
+
+    /**
+     * Creates a new EntityStore.
+     *
+     * @param components the component store whose rows follow the entities' slots
+     * @param executor   the executor to run parallel iteration on
+     */
+    public EntityStore(ComponentStore components, WorldExecutor executor) {
+        mComponents = components;
+        mExecutor = executor;
+        mEntities = new Entity[INITIAL_CAPACITY];
+        mSpawns = new ConcurrentLinkedQueue<>();
+        mKills = new ConcurrentLinkedQueue<>();
+        mPending = new ArrayList<>();
+        mView = new View();
+        mArchetypes = new HashMap<>();
+        mArchetypeList = new ArrayList<>();
+        mTypedViews = new ConcurrentHashMap<>();
+        mUnpositioned = new ArrayList<>();
+        mUnpositionedView = Collections.unmodifiableList(mUnpositioned);
+    }
+
+    /**
+     * Buffers an entity to be added at the next commit.
+     *
+     * @param e the entity to spawn
+     */
+    public void spawn(Entity e) {
+        mSpawns.add(e);
+    }
+
+    /**
+     * Buffers an entity to be removed at the next commit. Killing an entity that is not in the store does nothing.
+     *
+     * @param e the entity to kill
+     */
+    public void kill(Entity e) {
+        mKills.add(e);
+    }
+
+    /**
+     * Applies the buffered spawns and then the buffered kills. Must not be called while the store is being read.
+     * Spawns and kills buffered while committing may be applied now or at the next commit.
+     */
+    public void commit() {
+        int archetypes = mArchetypeList.size();
+        // Applied in id order so slots don't depend on which thread queued what first
+        drain(mSpawns);
+        for (Entity e : mPending) {
+            if (e.mSlot >= 0)
+                continue; // Already spawned
+            if (mSize == mEntities.length)
+                mEntities = Arrays.copyOf(mEntities, mEntities.length * 2);
+            mComponents.ensureCapacity(mSize + 1);
+            mComponents.clear(mSize);
+            e.mSlot = mSize;
+            mEntities[mSize++] = e;
+            archetypeOf(e.getClass()).add(e);
+            e.onSpawn();
+            if (mComponents.getKind(e.mSlot) == ComponentStore.NO_KIND) {
+                e.mUnpositionedIndex = mUnpositioned.size();
+                mUnpositioned.add(e);
+            }
+            mVersion++;
+        }
+        drain(mKills);
+        for (Entity e : mPending) {
+            int slot = e.mSlot;
+            if (slot < 0 || mEntities[slot] != e)
+                continue; // Already killed, or never spawned here
+            // Move the last entity into the freed slot
+            e.mArchetype.remove(e);
+            if (e.mUnpositionedIndex >= 0) {
+                Entity moved = mUnpositioned.remove(mUnpositioned.size() - 1);
+                if (moved != e) {
+                    mUnpositioned.set(e.mUnpositionedIndex, moved);
+                    moved.mUnpositionedIndex = e.mUnpositionedIndex;
+                }
+                e.mUnpositionedIndex = -1;
+            }
+            Entity last = mEntities[--mSize];
+            if (last != e) {
+                mEntities[slot] = last;
+                last.mSlot = slot;
+                last.mArchetype.moved(last);
+                mComponents.move(mSize, slot);
+            }
+            mComponents.clear(mSize);
+            mEntities[mSize] = null;
+            e.mSlot = -1;
+            mVersion++;
+        }
+        mPending.clear();
+        if (mArchetypeList.size() > archetypes)
+            synchronized (mArchetypeList) {
+                for (EntityView<?> view : mTypedViews.values())
+                    view.refresh(mArchetypeList);
+            }
+    }
+
+    private void drain(Queue<Entity> queue) {
+        mPending.clear();
+        Entity e;
+        while ((e = queue.poll()) != null)
+            mPending.add(e);
+        mPending.sort(BY_ID);
+    }
+
+    /**
+     * Gets a view of the entities of a type, making it if this is the first time. Safe to call from any thread, such as
+     * from an entity's constructor on the FX thread.
+     *
+     * @param type the type of entity
+     * @param <T>  the type of entity
+     *
+     * @return A live view of the entities that are instances of the given type.
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Entity> EntityView<T> entitiesOf(Class<T> type) {
+        EntityView<?> view = mTypedViews.get(type);
+        if (view != null)
+            return (EntityView<T>) view;
+        // A new view has to see the archetypes as they are, and be in the map before a commit adds to them
+        synchronized (mArchetypeList) {
+            return (EntityView<T>) mTypedViews.computeIfAbsent(type, t -> {
+                EntityView<T> created = new EntityView<>(type, mExecutor);
+                created.refresh(mArchetypeList);
+                return created;
+            });
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Entity> Archetype<T> archetypeOf(Class<T> type) {
+        Archetype<T> archetype = (Archetype<T>) mArchetypes.get(type);
+        if (archetype == null) {
+            mArchetypes.put(type, archetype = new Archetype<>(type));
+            synchronized (mArchetypeList) {
+                mArchetypeList.add(archetype);
+            }
+        }
+        return archetype;
+    }
+
+    /**
+     * @return A number that changes whenever entities are spawned, killed or moved between slots.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public Entity get(int index) {
+        if (index < 0 || index >= mSize)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+        return mEntities[index];
+    }
+
+    /**
+     * @return An unmodifiable list of the entities as of the last commit. The list is live: it reflects later commits.
+     */
+    public List<Entity> view() {
+        return mView;
+    }
+
+    /**
+     * @return An unmodifiable, live list of the entities that had no kind once they spawned, so no position in the
+     * component store, as of the last commit.
+     */
+    public List<Entity> getUnpositioned() {
+        return mUnpositionedView;
+    }
+
+    /**
+     * @return A stream of the entities as of the last commit, which splits evenly when made parallel.
+     */
+    public Stream<Entity> stream() {
+        return Arrays.stream(mEntities, 0, mSize);
+    }
+
+    /**
+     * Calls an action for every entity, in chunks of slots spread across the executor's threads, and waits for all of
+     * them to finish.
+     *
+     * @param action the action to call
+     */
+    public void forEachParallel(Consumer<? super Entity> action) {
+        Entity[] entities = mEntities;
+        mExecutor.forRange(mSize, (from, to) -> {
+            for (int i = from; i < to; i++)
+                action.accept(entities[i]);
+        });
+    }
+
+    /**
+     * Calls an action for every entity, in partitions of about equal cost spread across the executor's threads, and
+     * waits for all of them to finish.
+     *
+     * @param action   the action to call
+     * @param balancer the balancer for this phase
+     */
+    public void forEachParallel(Consumer<? super Entity> action, LoadBalancer balancer) {
+        Entity[] entities = mEntities;
+        mExecutor.forRange(mSize, (from, to) -> {
+            for (int i = from; i < to; i++)
+                action.accept(entities[i]);
+        }, balancer);
+    }
+
+    /**
+     * Calls an action once for every unordered pair of entities, the one in the lower slot first.
+     * Pairs are visited a block of slots against another block at a time, so each block stays in cache.
+     *
+     * @param action the action to call for each pair
+     */
+    public void forEachPair(BiConsumer<? super Entity, ? super Entity> action) {
+        int blocks = (mSize + PAIR_BLOCK - 1) / PAIR_BLOCK;
+        for (int row = 0; row < blocks; row++)
+            forEachPairInRow(row, blocks, action);
+    }
+
+    /**
+     * Calls an action once for every unordered pair of entities, the one in the lower slot first, splitting the
+     * pairs across threads in blocks.
+     * The action may be called concurrently for pairs that share an entity, so it must not modify entities without
+     * synchronization.
+     *
+     * @param action the action to call for each pair
+     */
+    public void forEachPairParallel(BiConsumer<? super Entity, ? super Entity> action) {
+        int blocks = (mSize + PAIR_BLOCK - 1) / PAIR_BLOCK;
+        // Row r of the block triangle has blocks - r tiles, so pair it with row blocks - 1 - r to even out the work
+        mExecutor.forRange((blocks + 1) / 2, (from, to) -> {
+            for (int row = from; row < to; row++) {
+                forEachPairInRow(row, blocks, action);
+                if (blocks - 1 - row != row)
+                    forEachPairInRow(blocks - 1 - row, blocks, action);
+            }
+        });
+    }
+
+    /**
+     * Visits the pairs between one block and itself and every block after it.
+     */
+    private void forEachPairInRow(int row, int blocks, BiConsumer<? super Entity, ? super Entity> action) {
+        Entity[] entities = mEntities;
+        int size = mSize;
+        int rowStart = row * PAIR_BLOCK;
+        int rowEnd = Math.min(rowStart + PAIR_BLOCK, size);
+        for (int column = row; column < blocks; column++) {
+            int columnStart = column * PAIR_BLOCK;
+            int columnEnd = Math.min(columnStart + PAIR_BLOCK, size);
+            for (int i = rowStart; i < rowEnd; i++) {
+                Entity a = entities[i];
+                for (int j = Math.max(columnStart, i + 1); j < columnEnd; j++)
+                    action.accept(a, entities[j]);
+            }
+        }
+    }
+
+    private class View extends AbstractList<Entity> implements RandomAccess {
+
+        @Override
+        public Entity get(int index) {
+            return EntityStore.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    }
+}
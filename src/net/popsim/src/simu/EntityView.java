@@ -0,0 +1,111 @@
+package net.popsim.src.simu;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * A live view of the entities that are instances of a type, made of the archetypes of that type and its subclasses.
+ * Iterating it only touches matching entities.
+ *
+ * @param <T> the type of entity
+ */
+public class EntityView<T extends Entity> extends AbstractCollection<T> {
+
+    private final Class<T> mType;
+    private final WorldExecutor mExecutor;
+    private final List<Archetype<? extends T>> mArchetypes;
+    private int mKnownArchetypes;
+
+    EntityView(Class<T> type, WorldExecutor executor) {
+        mType = type;
+        mExecutor = executor;
+        mArchetypes = new ArrayList<>();
+    }
+
+    public Class<T> getType() {
+        return mType;
+    }
+
+    /**
+     * @return The number of archetypes matching this view.
+     */
+    public int getArchetypeCount() {
+        return mArchetypes.size();
+    }
+
+    /**
+     * Archetypes give direct access to matching entities and their slots, for tight loops.
+     *
+     * @param index the index of the archetype
+     *
+     * @return A matching archetype.
+     */
+    public Archetype<? extends T> getArchetype(int index) {
+        return mArchetypes.get(index);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Archetype<? extends T> a : mArchetypes)
+            size += a.size();
+        return size;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+
+            private int mArchetype;
+            private int mIndex;
+
+            @Override
+            public boolean hasNext() {
+                while (mArchetype < mArchetypes.size() && mIndex >= mArchetypes.get(mArchetype).size()) {
+                    mArchetype++;
+                    mIndex = 0;
+                }
+                return mArchetype < mArchetypes.size();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return mArchetypes.get(mArchetype).get(mIndex++);
+            }
+        };
+    }
+
+    @Override
+    public void forEach(Consumer<? super T> action) {
+        for (Archetype<? extends T> a : mArchetypes)
+            for (int i = 0; i < a.size(); i++)
+                action.accept(a.get(i));
+    }
+
+    /**
+     * Calls an action for every matching entity, splitting each archetype into chunks across threads.
+     *
+     * @param action the action to call
+     */
+    public void forEachParallel(Consumer<? super T> action) {
+        for (Archetype<? extends T> a : mArchetypes)
+            mExecutor.forRange(a.size(), (from, to) -> {
+                for (int i = from; i < to; i++)
+                    action.accept(a.get(i));
+            });
+    }
+
+    /**
+     * Picks up archetypes created since the view was last refreshed. Called by the store at the tick boundary.
+     */
+    @SuppressWarnings("unchecked")
+    void refresh(List<Archetype<?>> archetypes) {
+        for (; mKnownArchetypes < archetypes.size(); mKnownArchetypes++) {
+            Archetype<?> a = archetypes.get(mKnownArchetypes);
+            if (mType.isAssignableFrom(a.getType()))
+                mArchetypes.add((Archetype<? extends T>) a);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package net.popsim.src.simu;
+
+import net.popsim.src.util.Histogram;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Splits a range of slots into partitions of about equal cost, using how long each block of slots took last time.
+ * Also measures how busy each worker thread was, to report how evenly the work ended up spread.
+ * <br>A balancer is meant for one phase that is run once per tick, such as the update.
+ */
+public class LoadBalancer {
+
+    /**
+     * Slots in a block whose time is measured.
+     */
+    public static final int GRAIN = 64;
+    /**
+     * Partitions per thread, so threads that finish early can steal from those that don't.
+     */
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    private final int mThreads;
+    private long[] mCosts;
+    private int mMeasured;
+    private int[] mBounds;
+    private int mPartitions;
+    private final AtomicLongArray mBusy;
+    private final Histogram mImbalances;
+    private volatile double mImbalance;
+
+    /**
+     * Creates a new LoadBalancer.
+     *
+     * @param threads the number of threads the work is spread over
+     */
+    public LoadBalancer(int threads) {
+        mThreads = threads;
+        mCosts = new long[0];
+        mBounds = new int[0];
+        // Pool indices can go past the thread count when threads are replaced
+        mBusy = new AtomicLongArray(threads * 2);
+        mImbalances = new Histogram();
+    }
+
+    /**
+     * Works out the partitions for the range [0, size) from the costs measured last time.
+     * Blocks that were never measured are assumed to cost the average.
+     *
+     * @param size the size of the range
+     *
+     * @return The number of partitions.
+     */
+    int plan(int size) {
+        int blocks = (size + GRAIN - 1) / GRAIN;
+        if (mCosts.length < blocks)
+            mCosts = Arrays.copyOf(mCosts, Math.max(blocks, mCosts.length * 2));
+        long known = 0;
+        int measured = Math.min(mMeasured, blocks);
+        for (int i = 0; i < measured; i++)
+            known += mCosts[i];
+        long average = measured > 0? Math.max(1, known / measured) : 1;
+        for (int i = measured; i < blocks; i++)
+            mCosts[i] = average;
+        long total = known + average * (blocks - measured);
+        mPartitions = Math.max(1, Math.min(blocks, mThreads * PARTITIONS_PER_THREAD));
+        if (mBounds.length < mPartitions + 1)
+            mBounds = new int[mPartitions + 1];
+        // Cut the blocks wherever the running cost passes the next multiple of the target
+        int partition = 1;
+        long cost = 0;
+        for (int i = 0; i < blocks && partition < mPartitions; i++) {
+            cost += mCosts[i];
+            if (cost * mPartitions >= total * partition)
+                mBounds[partition++] = Math.min(size, (i + 1) * GRAIN);
+        }
+        for (; partition <= mPartitions; partition++)
+            mBounds[partition] = size;
+        mMeasured = blocks;
+        for (int i = 0; i < mBusy.length(); i++)
+            mBusy.set(i, 0);
+        return mPartitions;
+    }
+
+    /**
+     * Runs one partition, timing each block in it.
+     */
+    void run(int partition, WorldExecutor.RangeAction action) {
+        int from = mBounds[partition], to = mBounds[partition + 1];
+        long busy = 0;
+        for (int block = from; block < to; block += GRAIN) {
+            long start = System.nanoTime();
+            action.run(block, Math.min(block + GRAIN, to));
+            long time = System.nanoTime() - start;
+            mCosts[block / GRAIN] = time;
+            busy += time;
+        }
+        Thread t = Thread.currentThread();
+        int index = t instanceof ForkJoinWorkerThread? ((ForkJoinWorkerThread) t).getPoolIndex() : 0;
+        mBusy.addAndGet(index % mBusy.length(), busy);
+    }
+
+    /**
+     * Records how imbalanced the run that just finished was.
+     */
+    void finish() {
+        long max = 0, total = 0;
+        for (int i = 0; i < mBusy.length(); i++) {
+            long busy = mBusy.get(i);
+            max = Math.max(max, busy);
+            total += busy;
+        }
+        if (total == 0)
+            return;
+        mImbalance = max * (double) mThreads / total;
+        mImbalances.record(Math.round(mImbalance * 1000));
+    }
+
+    /**
+     * @return The busiest thread's time over the mean thread time in the last run. 1 means perfectly even.
+     */
+    public double getImbalance() {
+        return mImbalance;
+    }
+
+    /**
+     * @return Every run's imbalance, in thousandths.
+     */
+    public Histogram getImbalances() {
+        return mImbalances;
+    }
+}
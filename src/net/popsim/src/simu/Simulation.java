@@ -1,8 +1,12 @@
 package net.popsim.src.simu;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import net.popsim.src.simu.TickProfiler.Phase;
 import net.popsim.src.util.ExceptionalRunnable;
+import net.popsim.src.util.TripleBuffer;
 
 import java.util.concurrent.*;
 
@@ -11,60 +15,190 @@ public class Simulation implements ExceptionalRunnable {
     private final Context mContext;
     private final World mWorld;
     private final Canvas mCanvas;
-    private final ScheduledExecutorService mTickScheduler;
+    private final Viewport mViewport;
+    private final boolean mHeadless;
+    private final TickProfiler mProfiler;
+    private final TripleBuffer<Snapshot> mSnapshots;
+    private final AnimationTimer mRenderTimer;
+    private final ExecutorService mTickScheduler;
 
-    private ScheduledFuture mFutureTick;
+    private TickGovernor mGovernor;
+    private Future mFutureLoop;
+    private volatile boolean mLooping;
     private CountDownLatch mFinishLatch;
-    private Exception mException;
+    private volatile Exception mException;
+    private boolean mUnthrottled;
+    private long mTickLimit;
+    private long mTimeLimit;
+    private long mStartTime;
 
     public Simulation(Context context) throws Exception {
+        this(context, false);
+    }
+
+    /**
+     * Creates a new Simulation for the given context.
+     *
+     * @param context  the context to simulate
+     * @param headless whether to run without a canvas, in which case the FX toolkit is never touched
+     *
+     * @throws Exception if the world cannot be constructed.
+     */
+    public Simulation(Context context, boolean headless) throws Exception {
         mContext = context;
+        mHeadless = headless;
+        mProfiler = new TickProfiler();
         mWorld = mContext.getWorldClass().getConstructor(Simulation.class, Context.class).newInstance(this, mContext);
-        mCanvas = new Canvas(mWorld.getWidth(), mWorld.getHeight());
-        mCanvas.setFocusTraversable(true);
-        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+        if (mHeadless) {
+            mCanvas = null;
+            mViewport = null;
+        } else {
+            int width = mContext.getViewportWidth(), height = mContext.getViewportHeight();
+            mCanvas = new Canvas(width, height);
+            mCanvas.setFocusTraversable(true);
+            mViewport = new Viewport(mWorld.getWidth(), mWorld.getHeight(), width, height);
+            mViewport.install(mCanvas);
+        }
+        if (mHeadless || mContext.isLockstepRendering()) {
+            mSnapshots = null;
+            mRenderTimer = null;
+        } else {
+            // Updates publish snapshots, and the FX thread draws the latest one each frame
+            mSnapshots = new TripleBuffer<>(Snapshot::new);
+            mRenderTimer = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    renderFrame();
+                }
+            };
+        }
+        mTickScheduler = Executors.newSingleThreadExecutor(r -> {
             Thread t = new Thread(r);
             t.setName("Tick Scheduler");
             return t;
         });
-        executor.setRemoveOnCancelPolicy(true);
-        mTickScheduler = Executors.unconfigurableScheduledExecutorService(executor);
     }
 
+    /**
+     * @return The canvas the world is rendered to, or null if the simulation is headless.
+     */
     public Canvas getCanvas() {
         return mCanvas;
     }
 
+    /**
+     * @return The part of the world shown on the canvas, or null if the simulation is headless.
+     */
+    public Viewport getViewport() {
+        return mViewport;
+    }
+
+    /**
+     * @return The governor pacing the ticks, or null if the simulation has not begun.
+     */
+    public TickGovernor getGovernor() {
+        return mGovernor;
+    }
+
+    /**
+     * @return The profiler timing each phase of every tick. Only the tick thread should record to it.
+     */
+    public TickProfiler getProfiler() {
+        return mProfiler;
+    }
+
+    public World getWorld() {
+        return mWorld;
+    }
+
+    public boolean isHeadless() {
+        return mHeadless;
+    }
+
+    /**
+     * Sets whether ticks should run back to back as fast as possible rather than at the context's update frequency.
+     * Must be set before {@link #begin()}.
+     *
+     * @param unthrottled true to run as fast as possible
+     */
+    public void setUnthrottled(boolean unthrottled) {
+        mUnthrottled = unthrottled;
+    }
+
+    /**
+     * Sets the number of ticks after which the simulation finishes on its own.
+     *
+     * @param ticks the tick limit, or zero for no limit
+     */
+    public void setTickLimit(long ticks) {
+        mTickLimit = ticks;
+    }
+
+    /**
+     * Sets the wall-clock time after which the simulation finishes on its own, measured from {@link #begin()}.
+     *
+     * @param time the time limit, or zero for no limit
+     * @param unit the unit of the time limit
+     */
+    public void setTimeLimit(long time, TimeUnit unit) {
+        mTimeLimit = unit.toNanos(time);
+    }
+
     public void tick() {
+        if (isFinished())
+            return;
         try {
+            long start = System.nanoTime();
             // Get the world ready for an update
             mWorld.preUpdate();
-            CountDownLatch finalizeLatch = new CountDownLatch(1);
-            Platform.runLater(() -> {
+            long t = mProfiler.record(Phase.PRE_UPDATE, start);
+            if (mHeadless || mSnapshots != null) {
+                mWorld.update();
+                t = mProfiler.record(Phase.UPDATE, t);
+            } else {
+                CountDownLatch finalizeLatch = new CountDownLatch(1);
+                Platform.runLater(() -> {
+                    GraphicsContext gfx = mCanvas.getGraphicsContext2D();
+                    gfx.save();
+                    try {
+                        mViewport.apply(gfx);
+                        mWorld.render(gfx);
+                    } catch (Exception e) {
+                        mException = new Exception("Exception during simulation render tick", e);
+                    } finally {
+                        gfx.restore();
+                    }
+                    // Let the update finalize
+                    finalizeLatch.countDown();
+                });
+                // Update while rendering
+                mWorld.update();
+                t = mProfiler.record(Phase.UPDATE, t);
                 try {
-                    mWorld.render(mCanvas.getGraphicsContext2D());
-                } catch (Exception e) {
-                    mException = new Exception("Exception during simulation render tick", e);
+                    // Wait for the render to be complete before we finalize the update
+                    finalizeLatch.await();
+                } catch (InterruptedException e) {
+                    System.err.println("Interrupted: tossing update tick");
+                    return;
                 }
-                // Let the update finalize
-                finalizeLatch.countDown();
-            });
-            // Update while rendering
-            mWorld.update();
-            try {
-                // Wait for the render to be complete before we finalize the update
-                finalizeLatch.await();
-            } catch (InterruptedException e) {
-                System.err.println("Interrupted: tossing update tick");
-                return;
+                t = mProfiler.record(Phase.RENDER_WAIT, t);
             }
             // Finalize the update if everything goes smoothly
-            if (mException == null)
+            if (mException == null) {
                 mWorld.postUpdate();
+                t = mProfiler.record(Phase.POST_UPDATE, t);
+            }
+            // Hand the finished state off to the renderer
+            if (mException == null && mSnapshots != null) {
+                mWorld.snapshot(mSnapshots.getBack());
+                mSnapshots.publish();
+                mProfiler.record(Phase.SNAPSHOT, t);
+            }
+            mProfiler.record(Phase.TICK, start);
         } catch (Exception e) {
             mException = new Exception("Exception during simulation update tick", e);
         }
-        if (mException != null)
+        if (mException != null || isOverLimit())
             signalShutdown();
     }
 
@@ -87,24 +221,44 @@ public class Simulation implements ExceptionalRunnable {
             return;
         }
         mFinishLatch = new CountDownLatch(1);
-        System.out.printf("Beginning simulation @ %dHz\n", mContext.getTickFrequency());
+        if (mUnthrottled) {
+            System.out.println("Beginning simulation @ unthrottled rate");
+            mGovernor = new TickGovernor(0, mContext.getTickPolicy(), mContext.getMaxCatchUpTicks());
+        } else {
+            System.out.printf("Beginning simulation @ %dHz (%s)\n", mContext.getTickFrequency(), mContext.getTickPolicy().getName());
+            mGovernor = new TickGovernor(mContext.getTickInterval(), mContext.getTickPolicy(), mContext.getMaxCatchUpTicks());
+        }
         mWorld.init();
+        if (mRenderTimer != null)
+            Platform.runLater(mRenderTimer::start);
+        mStartTime = System.nanoTime();
         resume();
     }
 
     public void resume() {
-        mFutureTick = mTickScheduler.scheduleAtFixedRate(this::tick, 0, mContext.getTickInterval(), TimeUnit.NANOSECONDS);
+        if (!isPaused())
+            return;
+        mLooping = true;
+        mFutureLoop = mTickScheduler.submit(this::loop);
     }
 
     public void pause() {
         if (!isPaused()) {
-            mFutureTick.cancel(false);
-            mFutureTick = null;
+            // Let the current tick finish, the loop checks the flag between ticks
+            mLooping = false;
+            mFutureLoop = null;
         }
     }
 
     public boolean isPaused() {
-        return mFutureTick == null;
+        return mFutureLoop == null;
+    }
+
+    /**
+     * @return True if the simulation has been signalled to shut down.
+     */
+    public boolean isFinished() {
+        return mFinishLatch != null && mFinishLatch.getCount() == 0;
     }
 
     public void signalShutdown() {
@@ -116,6 +270,51 @@ public class Simulation implements ExceptionalRunnable {
     public void shutdown() {
         pause();
         signalShutdown();
+        if (!mTickScheduler.isShutdown()) {
+            mProfiler.dump(System.out);
+            LoadBalancer balancer = mWorld.getUpdateBalancer();
+            if (balancer != null && balancer.getImbalances().getCount() > 0)
+                System.out.printf("Update imbalance p50 %.2f  p99 %.2f\n",
+                        balancer.getImbalances().getValueAtPercentile(50) / 1000D,
+                        balancer.getImbalances().getValueAtPercentile(99) / 1000D);
+        }
         mTickScheduler.shutdown();
+        mWorld.shutdown();
+        if (mRenderTimer != null)
+            Platform.runLater(mRenderTimer::stop);
+    }
+
+    /**
+     * Draws the latest snapshot, if it has not been drawn yet. Called on the FX thread every frame.
+     */
+    private void renderFrame() {
+        if (!mSnapshots.update())
+            return;
+        try {
+            mWorld.render(mCanvas.getGraphicsContext2D(), mSnapshots.getFront());
+        } catch (Exception e) {
+            mException = new Exception("Exception during simulation render", e);
+            signalShutdown();
+        }
+    }
+
+    /**
+     * Runs ticks as the governor sees fit until paused or finished.
+     */
+    private void loop() {
+        mGovernor.start();
+        while (mLooping && !isFinished()) {
+            for (int i = mGovernor.awaitTicks(); i > 0 && mLooping && !isFinished(); i--) {
+                long start = System.nanoTime();
+                tick();
+                mGovernor.tickDone(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private boolean isOverLimit() {
+        if (mTickLimit > 0 && mWorld.getTicks() >= mTickLimit)
+            return true;
+        return mTimeLimit > 0 && System.nanoTime() - mStartTime >= mTimeLimit;
     }
 }
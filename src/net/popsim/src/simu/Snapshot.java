@@ -0,0 +1,437 @@
+package net.popsim.src.simu;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import net.popsim.src.util.Colors;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The renderable state of a world at the end of a tick.
+ * Entities copy what they need to be drawn into the snapshot, so the FX thread can draw it while the next tick updates.
+ * <br>A snapshot can also be rasterized into a buffer of pixels on the update side, in which case the FX thread only
+ * has to copy the buffer into an image and draw that, however many circles there are.
+ * <br>With more circles than pixels it can instead be drawn as a heatmap of where they are, which costs about as much
+ * as the buffer is big, and is easier to read than a solid smear anyway.
+ * <br>Circles are added in world coordinates and kept in canvas coordinates, through the view set on the snapshot.
+ * Circles that fall outside the view are dropped as they are added.
+ */
+public class Snapshot {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private double[] mX;
+    private double[] mY;
+    private double[] mRadius;
+    private Color[] mColor;
+    private int[] mArgb;
+    private int mSize;
+    private long mTick;
+    private Color mLastColor;
+    private int mLastArgb;
+    private int[] mPixels;
+    private int mRasterWidth;
+    private int mRasterHeight;
+    private boolean mRasterized;
+    private WritableImage mImage;
+    private int[] mBandStart;
+    private int[] mBandCursor;
+    private int[] mBandItems;
+    private double mViewX;
+    private double mViewY;
+    private double mViewScale;
+    private int mViewWidth;
+    private int mViewHeight;
+
+    public Snapshot() {
+        mX = new double[INITIAL_CAPACITY];
+        mY = new double[INITIAL_CAPACITY];
+        mRadius = new double[INITIAL_CAPACITY];
+        mColor = new Color[INITIAL_CAPACITY];
+        mArgb = new int[INITIAL_CAPACITY];
+        mPixels = new int[0];
+        mBandStart = new int[1];
+        mBandCursor = new int[0];
+        mBandItems = new int[0];
+        mViewScale = 1;
+        mViewWidth = Integer.MAX_VALUE;
+        mViewHeight = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Empties the snapshot so it can be filled for a new tick.
+     *
+     * @param tick the tick this snapshot is taken at
+     */
+    public void clear(long tick) {
+        // Drop color references so we don't hold on to them
+        Arrays.fill(mColor, 0, mSize, null);
+        mSize = 0;
+        mTick = tick;
+        mRasterized = false;
+    }
+
+    /**
+     * Sets the part of the world that circles are added through, until it is set again.
+     *
+     * @param x      the x coordinate of the world at the top left of the canvas
+     * @param y      the y coordinate of the world at the top left of the canvas
+     * @param scale  the size of a unit of the world, in pixels
+     * @param width  the width of the canvas, in pixels
+     * @param height the height of the canvas, in pixels
+     */
+    public void setView(double x, double y, double scale, int width, int height) {
+        mViewX = x;
+        mViewY = y;
+        mViewScale = scale;
+        mViewWidth = width;
+        mViewHeight = height;
+    }
+
+    /**
+     * Adds a filled circle to the snapshot, unless it is out of view.
+     *
+     * @param x      x coordinate of the center, in the world
+     * @param y      y coordinate of the center, in the world
+     * @param radius radius of the circle, in the world
+     * @param color  fill color of the circle
+     */
+    public void add(double x, double y, double radius, Color color) {
+        x = (x - mViewX) * mViewScale;
+        y = (y - mViewY) * mViewScale;
+        radius *= mViewScale;
+        if (x + radius < 0 || y + radius < 0 || x - radius >= mViewWidth || y - radius >= mViewHeight)
+            return;
+        if (mSize == mX.length)
+            grow();
+        mX[mSize] = x;
+        mY[mSize] = y;
+        mRadius[mSize] = radius;
+        mColor[mSize] = color;
+        // Runs of the same color are common, so skip repacking them
+        if (color != mLastColor) {
+            mLastColor = color;
+            mLastArgb = Colors.toArgb(color);
+        }
+        mArgb[mSize] = mLastArgb;
+        mSize++;
+    }
+
+    /**
+     * Draws every circle into a buffer of pixels, in bands of rows spread over an executor. Later circles are drawn
+     * over earlier ones. Called on the update thread once the snapshot is filled.
+     *
+     * @param width    the width of the buffer
+     * @param height   the height of the buffer
+     * @param executor the executor to spread the bands over
+     */
+    public void rasterize(int width, int height, WorldExecutor executor) {
+        ensurePixels(width, height);
+        mRasterWidth = width;
+        mRasterHeight = height;
+        int bandHeight = (height + executor.getParallelism() * 4 - 1) / (executor.getParallelism() * 4);
+        int bands = bin(height, Math.max(1, bandHeight));
+        executor.forRange(bands, 1, (from, to) -> {
+            for (int band = from; band < to; band++)
+                rasterize(band * bandHeight, Math.min(height, (band + 1) * bandHeight), mBandStart[band],
+                        mBandStart[band + 1]);
+        });
+        mRasterized = true;
+    }
+
+    /**
+     * Draws the density of circles into a buffer of pixels, rather than the circles themselves. The buffer is split
+     * into square cells, and each cell is tinted the average color of the circles centered in it, more opaque the more
+     * of them there are on a log scale. Circles are binned into a histogram per thread, which are then summed and
+     * colored in bands of rows. Called on the update thread once the snapshot is filled.
+     *
+     * @param width    the width of the buffer
+     * @param height   the height of the buffer
+     * @param cell     the size of a cell, in pixels
+     * @param scratch  the histograms to bin into
+     * @param executor the executor to spread the histogram over
+     */
+    public void heatmap(int width, int height, int cell, HeatmapScratch scratch, WorldExecutor executor) {
+        ensurePixels(width, height);
+        mRasterWidth = width;
+        mRasterHeight = height;
+        int cols = (width + cell - 1) / cell, rows = (height + cell - 1) / cell;
+        // Every extra histogram costs a pass over the cells to sum, so each should bin at least that many circles
+        int parts = Math.max(1, Math.min(executor.getParallelism(), mSize / (cols * rows)));
+        if (scratch.mBins.length < parts)
+            scratch.mBins = Arrays.copyOf(scratch.mBins, parts);
+        long[][] histograms = scratch.mBins;
+        // Count, then red, green and blue sums, interleaved per cell. Longs, as millions of entities can pile into one
+        int length = cols * rows * 4;
+        executor.forRange(parts, 1, (from, to) -> {
+            for (int p = from; p < to; p++) {
+                if (histograms[p] == null || histograms[p].length < length)
+                    histograms[p] = new long[length];
+                long[] bins = histograms[p];
+                Arrays.fill(bins, 0, length, 0);
+                for (int i = p * mSize / parts, end = (p + 1) * mSize / parts; i < end; i++) {
+                    double x = mX[i], y = mY[i];
+                    if (x < 0 || y < 0 || x >= width || y >= height)
+                        continue;
+                    int at = ((int) y / cell * cols + (int) x / cell) * 4, argb = mArgb[i];
+                    bins[at]++;
+                    bins[at + 1] += argb >>> 16 & 0xFF;
+                    bins[at + 2] += argb >>> 8 & 0xFF;
+                    bins[at + 3] += argb & 0xFF;
+                }
+            }
+        });
+        // Sum into the first histogram, noting the busiest cell
+        int bands = Math.max(1, Math.min(rows, executor.getParallelism() * 4));
+        AtomicLong busiest = new AtomicLong();
+        executor.forRange(bands, 1, (from, to) -> {
+            long[] total = histograms[0];
+            for (int band = from; band < to; band++) {
+                long max = 0;
+                for (int at = band * rows / bands * cols * 4, end = (band + 1) * rows / bands * cols * 4; at < end;
+                     at += 4) {
+                    for (int p = 1; p < parts; p++)
+                        for (int c = 0; c < 4; c++)
+                            total[at + c] += histograms[p][at + c];
+                    max = Math.max(max, total[at]);
+                }
+                busiest.accumulateAndGet(max, Math::max);
+            }
+        });
+        double scale = 1 / Math.log1p(Math.max(1, busiest.get()));
+        executor.forRange(bands, 1, (from, to) -> {
+            long[] total = histograms[0];
+            for (int band = from; band < to; band++) {
+                for (int row = band * rows / bands, last = (band + 1) * rows / bands; row < last; row++) {
+                    int top = row * cell, bottom = Math.min(height, top + cell);
+                    for (int col = 0; col < cols; col++) {
+                        int at = (row * cols + col) * 4, argb = 0;
+                        long count = total[at];
+                        if (count > 0) {
+                            // Even a lone circle should show up
+                            int alpha = 64 + (int) (191 * Math.log1p(count) * scale);
+                            argb = alpha << 24 | (int) (total[at + 1] / count) << 16
+                                    | (int) (total[at + 2] / count) << 8 | (int) (total[at + 3] / count);
+                        }
+                        int left = col * cell, right = Math.min(width, left + cell);
+                        for (int y = top; y < bottom; y++)
+                            Arrays.fill(mPixels, y * width + left, y * width + right, argb);
+                    }
+                }
+            }
+        });
+        mRasterized = true;
+    }
+
+    /**
+     * Draws the snapshot, as an image if it was rasterized and circle by circle otherwise. Called on the FX thread.
+     *
+     * @param gfx the graphics context to draw on
+     */
+    public void render(GraphicsContext gfx) {
+        if (mRasterized) {
+            if (mImage == null || mImage.getWidth() != mRasterWidth || mImage.getHeight() != mRasterHeight)
+                mImage = new WritableImage(mRasterWidth, mRasterHeight);
+            mImage.getPixelWriter().setPixels(0, 0, mRasterWidth, mRasterHeight, PixelFormat.getIntArgbInstance(),
+                    mPixels, 0, mRasterWidth);
+            gfx.drawImage(mImage, 0, 0);
+            return;
+        }
+        Color last = null;
+        for (int i = 0; i < mSize; i++) {
+            if (mColor[i] != last)
+                gfx.setFill(last = mColor[i]);
+            double r = mRadius[i];
+            gfx.fillOval(mX[i] - r, mY[i] - r, r * 2, r * 2);
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long getTick() {
+        return mTick;
+    }
+
+    /**
+     * @return The x coordinate of the world at the left edge of the view.
+     */
+    public double getViewMinX() {
+        return mViewX;
+    }
+
+    /**
+     * @return The y coordinate of the world at the top edge of the view.
+     */
+    public double getViewMinY() {
+        return mViewY;
+    }
+
+    /**
+     * @return The x coordinate of the world at the right edge of the view.
+     */
+    public double getViewMaxX() {
+        return mViewX + mViewWidth / mViewScale;
+    }
+
+    /**
+     * @return The y coordinate of the world at the bottom edge of the view.
+     */
+    public double getViewMaxY() {
+        return mViewY + mViewHeight / mViewScale;
+    }
+
+    public int getViewWidth() {
+        return mViewWidth;
+    }
+
+    public int getViewHeight() {
+        return mViewHeight;
+    }
+
+    public double getX(int index) {
+        return mX[index];
+    }
+
+    public double getY(int index) {
+        return mY[index];
+    }
+
+    public double getRadius(int index) {
+        return mRadius[index];
+    }
+
+    public Color getColor(int index) {
+        return mColor[index];
+    }
+
+    /**
+     * @return Whether the snapshot has been rasterized or drawn as a heatmap since it was last cleared.
+     */
+    public boolean isRasterized() {
+        return mRasterized;
+    }
+
+    /**
+     * Counting sorts the circles into bands of rows by the rows they might touch, keeping them in order within each
+     * band, so a band only has to look at its own circles.
+     *
+     * @return The number of bands.
+     */
+    private int bin(int height, int bandHeight) {
+        int bands = Math.max(1, (height + bandHeight - 1) / bandHeight);
+        if (mBandStart.length < bands + 1) {
+            mBandStart = new int[bands + 1];
+            mBandCursor = new int[bands];
+        }
+        Arrays.fill(mBandStart, 0, bands + 1, 0);
+        for (int i = 0; i < mSize; i++) {
+            int first = firstRow(i), last = lastRow(i, height);
+            for (int band = first / bandHeight; first <= last && band <= last / bandHeight; band++)
+                mBandStart[band + 1]++;
+        }
+        for (int band = 0; band < bands; band++)
+            mBandStart[band + 1] += mBandStart[band];
+        if (mBandItems.length < mBandStart[bands])
+            mBandItems = new int[Math.max(mBandStart[bands], mBandItems.length * 2)];
+        System.arraycopy(mBandStart, 0, mBandCursor, 0, bands);
+        for (int i = 0; i < mSize; i++) {
+            int first = firstRow(i), last = lastRow(i, height);
+            for (int band = first / bandHeight; first <= last && band <= last / bandHeight; band++)
+                mBandItems[mBandCursor[band]++] = i;
+        }
+        return bands;
+    }
+
+    // The rows a circle might touch, clipped to the buffer. Empty if first > last.
+    private int firstRow(int i) {
+        return Math.max(0, (int) Math.floor(mY[i] - mRadius[i]));
+    }
+
+    private int lastRow(int i, int height) {
+        return Math.min(height - 1, (int) Math.floor(mY[i] + mRadius[i]));
+    }
+
+    private void rasterize(int top, int bottom, int start, int end) {
+        int width = mRasterWidth;
+        int[] pixels = mPixels;
+        Arrays.fill(pixels, top * width, bottom * width, 0);
+        for (int item = start; item < end; item++) {
+            int i = mBandItems[item];
+            double x = mX[i], y = mY[i], r = mRadius[i];
+            int argb = mArgb[i];
+            boolean opaque = argb >>> 24 == 255;
+            // Rows whose centers are inside the circle, clipped to the band
+            int first = Math.max(top, (int) Math.ceil(y - r - 0.5));
+            int last = Math.min(bottom - 1, (int) Math.floor(y + r - 0.5));
+            if (first > last) {
+                // Smaller than a pixel, so it covers the one its center is in
+                int px = (int) Math.floor(x), py = (int) Math.floor(y);
+                if (py >= top && py < bottom && px >= 0 && px < width)
+                    plot(pixels, py * width + px, argb);
+                continue;
+            }
+            for (int row = first; row <= last; row++) {
+                double dy = row + 0.5 - y;
+                double half = Math.sqrt(Math.max(0, r * r - dy * dy));
+                int from = Math.max(0, (int) Math.ceil(x - half - 0.5));
+                int to = Math.min(width - 1, (int) Math.floor(x + half - 0.5));
+                if (opaque)
+                    for (int offset = row * width + from, stop = row * width + to; offset <= stop; offset++)
+                        pixels[offset] = argb;
+                else for (int offset = row * width + from, stop = row * width + to; offset <= stop; offset++)
+                    plot(pixels, offset, argb);
+            }
+        }
+    }
+
+    private void ensurePixels(int width, int height) {
+        long pixels = (long) width * height;
+        if (pixels > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many pixels to buffer: " + width + "x" + height);
+        if (mPixels.length < pixels)
+            mPixels = new int[(int) pixels];
+    }
+
+    private static void plot(int[] pixels, int offset, int argb) {
+        int alpha = argb >>> 24;
+        if (alpha == 255) {
+            pixels[offset] = argb;
+            return;
+        }
+        // Source over, on non-premultiplied channels
+        int below = pixels[offset];
+        int belowAlpha = below >>> 24;
+        int outAlpha = alpha + belowAlpha * (255 - alpha) / 255;
+        if (outAlpha == 0)
+            return;
+        int color = 0;
+        for (int shift = 0; shift < 24; shift += 8) {
+            int src = argb >>> shift & 0xFF, dst = below >>> shift & 0xFF;
+            color |= (src * alpha + dst * belowAlpha * (255 - alpha) / 255) / outAlpha << shift;
+        }
+        pixels[offset] = outAlpha << 24 | color;
+    }
+
+    private void grow() {
+        int capacity = mX.length * 2;
+        mX = Arrays.copyOf(mX, capacity);
+        mY = Arrays.copyOf(mY, capacity);
+        mRadius = Arrays.copyOf(mRadius, capacity);
+        mColor = Arrays.copyOf(mColor, capacity);
+        mArgb = Arrays.copyOf(mArgb, capacity);
+    }
+
+    /**
+     * The histograms a heatmap is binned into. Only the update thread fills snapshots, so a world can keep one of these
+     * for all of its snapshots rather than each snapshot holding its own.
+     */
+    public static final class HeatmapScratch {
+
+        private long[][] mBins = new long[0][];
+    }
+}
@@ -0,0 +1,176 @@
+package net.popsim.src.simu;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces ticks to a fixed timestep and decides what to do when ticks take longer than the timestep.
+ * Keeps track of overruns, the backlog of ticks behind schedule and the effective tick rate.
+ */
+public class TickGovernor {
+
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * What to do about ticks that were due while a slow tick was running.
+     */
+    public enum Policy {
+        /**
+         * Drop the missed ticks and carry on from the current time.
+         */
+        SKIP("Skip"),
+        /**
+         * Run the missed ticks back to back, up to a limit, and drop the rest.
+         */
+        CATCH_UP("Catch up"),
+        /**
+         * Never run ticks back to back; the simulation runs slower than real time until the load drops.
+         */
+        SLOW_MOTION("Slow motion");
+
+        private final String mName;
+
+        Policy(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public static Policy fromName(String name) {
+            for (Policy p : values())
+                if (p.mName.equalsIgnoreCase(name))
+                    return p;
+            throw new IllegalArgumentException("Unknown tick policy: " + name);
+        }
+    }
+
+    private final long mInterval;
+    private final Policy mPolicy;
+    private final int mMaxCatchUp;
+
+    private long mDeadline;
+    private volatile long mOverruns;
+    private volatile long mSkipped;
+    private volatile long mBacklog;
+    private volatile double mEffectiveHz;
+
+    private long mWindowStart;
+    private long mWindowTicks;
+    private long mWindowOverruns;
+    private long mWindowSkipped;
+
+    /**
+     * Creates a new TickGovernor.
+     *
+     * @param interval   the timestep in nanoseconds, or zero to run ticks as fast as possible
+     * @param policy     what to do when ticks fall behind
+     * @param maxCatchUp the most ticks to run back to back when catching up
+     */
+    public TickGovernor(long interval, Policy policy, int maxCatchUp) {
+        mInterval = interval;
+        mPolicy = policy;
+        mMaxCatchUp = Math.max(1, maxCatchUp);
+    }
+
+    /**
+     * Starts (or restarts) the schedule from the current time. Statistics are kept.
+     */
+    public void start() {
+        mDeadline = mWindowStart = System.nanoTime();
+        mWindowTicks = mWindowOverruns = mWindowSkipped = 0;
+        mBacklog = 0;
+    }
+
+    /**
+     * Waits until the next tick is due.
+     *
+     * @return The number of ticks that should be run back to back now.
+     */
+    public int awaitTicks() {
+        if (mInterval <= 0)
+            return 1;
+        long now;
+        while ((now = System.nanoTime()) < mDeadline)
+            LockSupport.parkNanos(mDeadline - now);
+        // Ticks that were due on top of the one we waited for
+        long behind = (now - mDeadline) / mInterval;
+        mBacklog = behind;
+        switch (mPolicy) {
+            case SKIP:
+                mDeadline += (behind + 1) * mInterval;
+                skip(behind);
+                return 1;
+            case CATCH_UP:
+                int ticks = (int) Math.min(behind + 1, mMaxCatchUp);
+                mDeadline += (behind + 1) * mInterval;
+                skip(behind + 1 - ticks);
+                return ticks;
+            case SLOW_MOTION:
+            default:
+                mDeadline = Math.max(mDeadline + mInterval, now);
+                return 1;
+        }
+    }
+
+    /**
+     * Records a finished tick.
+     *
+     * @param duration how long the tick took, in nanoseconds
+     */
+    public void tickDone(long duration) {
+        mWindowTicks++;
+        if (mInterval > 0 && duration > mInterval) {
+            mOverruns++;
+            mWindowOverruns++;
+        }
+        long now = System.nanoTime();
+        long elapsed = now - mWindowStart;
+        if (elapsed >= WINDOW) {
+            mEffectiveHz = mWindowTicks * (double) WINDOW / elapsed;
+            if (mWindowOverruns > 0 || mWindowSkipped > 0)
+                System.err.printf("Falling behind: %d overruns, %d skipped, backlog %d @ %.1fHz\n",
+                        mWindowOverruns, mWindowSkipped, mBacklog, mEffectiveHz);
+            mWindowStart = now;
+            mWindowTicks = mWindowOverruns = mWindowSkipped = 0;
+        }
+    }
+
+    /**
+     * @return The number of ticks that took longer than the timestep.
+     */
+    public long getOverruns() {
+        return mOverruns;
+    }
+
+    /**
+     * @return The number of ticks that were dropped to get back on schedule.
+     */
+    public long getSkipped() {
+        return mSkipped;
+    }
+
+    /**
+     * @return How many ticks behind schedule the last tick started.
+     */
+    public long getBacklog() {
+        return mBacklog;
+    }
+
+    /**
+     * @return The number of ticks run per second, measured over the last second.
+     */
+    public double getEffectiveHz() {
+        return mEffectiveHz;
+    }
+
+    public Policy getPolicy() {
+        return mPolicy;
+    }
+
+    private void skip(long ticks) {
+        mSkipped += ticks;
+        mWindowSkipped += ticks;
+    }
+}
@@ -0,0 +1,78 @@
+package net.popsim.src.simu;
+
+import net.popsim.src.util.Histogram;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+
+/**
+ * Times each phase of every tick into histograms.
+ * Phases are timed on the tick thread as consecutive intervals, so recording is just a clock read and a bucket
+ * increment.
+ */
+public class TickProfiler {
+
+    public enum Phase {
+        PRE_UPDATE("Pre-update"),
+        UPDATE("Update"),
+        RENDER_WAIT("Render wait"),
+        POST_UPDATE("Post-update"),
+        SNAPSHOT("Snapshot"),
+        TICK("Whole tick");
+
+        private final String mName;
+
+        Phase(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
+    private final EnumMap<Phase, Histogram> mHistograms;
+
+    public TickProfiler() {
+        mHistograms = new EnumMap<>(Phase.class);
+        for (Phase p : Phase.values())
+            mHistograms.put(p, new Histogram());
+    }
+
+    /**
+     * Records the time since a phase started.
+     *
+     * @param phase the phase that just ended
+     * @param start when the phase started, from {@link System#nanoTime()}
+     *
+     * @return The current time, which is when the next phase starts.
+     */
+    public long record(Phase phase, long start) {
+        long now = System.nanoTime();
+        mHistograms.get(phase).record(now - start);
+        return now;
+    }
+
+    public Histogram getHistogram(Phase phase) {
+        return mHistograms.get(phase);
+    }
+
+    public void reset() {
+        mHistograms.values().forEach(Histogram::reset);
+    }
+
+    /**
+     * Prints the p50, p99 and maximum time of every phase that was recorded.
+     *
+     * @param out the stream to print to
+     */
+    public void dump(PrintStream out) {
+        out.printf("Tick profile over %d ticks (ms):\n", mHistograms.get(Phase.TICK).getCount());
+        for (Phase p : Phase.values()) {
+            Histogram h = mHistograms.get(p);
+            if (h.getCount() > 0)
+                out.printf("  %-12s p50 %8.3f  p99 %8.3f  max %8.3f\n", p.getName(),
+                        h.getValueAtPercentile(50) / 1e6, h.getValueAtPercentile(99) / 1e6, h.getMax() / 1e6);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package net.popsim.src.simu;
+
+import net.popsim.src.simu.spatial.SpatialIndex;
+import net.popsim.src.simu.spatial.UniformGrid;
+import net.popsim.src.util.DoubleColumn;
+import net.popsim.src.util.IntColumn;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Splits the world into rectangular tiles, each updated by one thread at a time, so an update works on entities that
+ * are close together in space rather than in slot order.
+ * <br>At each tick boundary every positioned entity is assigned to the tile its position falls in, which is how
+ * entities migrate between tiles. Each tile then copies the positions of its own entities, and of the entities within
+ * a halo strip around it, into arrays of its own with a small grid over them. Neighbor queries made while a tile is
+ * updating are answered from those arrays when they fit inside the halo.
+ * <br>No tile is narrower or shorter than the halo, so a halo only ever takes in the eight tiles around it. There are
+ * fewer tiles than asked for if need be.
+ */
+public class TileDecomposition {
+
+    private final double mWidth;
+    private final double mHeight;
+    private final int mMaxColumns;
+    private final int mMaxRows;
+    private final double mCellSize;
+    private int mColumns;
+    private int mRows;
+    private double mTileWidth;
+    private double mTileHeight;
+    private double mHalo;
+    private Tile[] mTiles;
+    private int[] mTileStart;
+    private int[] mCursor;
+    private int[] mTileOf;
+    private int[] mOrder;
+    private int mSlots;
+    private long mVersion;
+    private long mTicks;
+    private long mMigrations;
+    private final ThreadLocal<Tile> mCurrent;
+    private final LongAdder mLocalQueries;
+    private final LongAdder mIndexQueries;
+
+    /**
+     * Creates a new TileDecomposition.
+     *
+     * @param width    the width of the world
+     * @param height   the height of the world
+     * @param columns  the most tiles across
+     * @param rows     the most tiles down
+     * @param halo     the width of the strip around each tile it can see
+     * @param cellSize the size of a cell in each tile's grid
+     */
+    public TileDecomposition(double width, double height, int columns, int rows, double halo, double cellSize) {
+        mWidth = width;
+        mHeight = height;
+        mMaxColumns = columns;
+        mMaxRows = rows;
+        mCellSize = cellSize;
+        mHalo = halo;
+        mTileOf = new int[0];
+        mOrder = new int[0];
+        mCurrent = new ThreadLocal<>();
+        mLocalQueries = new LongAdder();
+        mIndexQueries = new LongAdder();
+        layout();
+    }
+
+    /**
+     * Widens the halo to take in queries of a radius, if it is narrower, laying the tiles out again. Must be called
+     * before the first tick.
+     *
+     * @param radius the radius of the queries tiles should answer
+     */
+    public void reach(double radius) {
+        if (radius <= mHalo)
+            return;
+        mHalo = radius;
+        layout();
+    }
+
+    /**
+     * Assigns every positioned entity to a tile and fills in each tile's arrays and halo. Called at the tick boundary.
+     *
+     * @param components the columns to read positions and kinds from
+     * @param slots      the number of slots in use
+     * @param version    the version of the entity store
+     * @param executor   the executor to spread the tiles over
+     */
+    public void assign(ComponentStore components, int slots, long version, WorldExecutor executor) {
+        DoubleColumn xs = components.getXColumn();
+        DoubleColumn ys = components.getYColumn();
+        IntColumn kinds = components.getKindColumn();
+        if (mTileOf.length < slots) {
+            int capacity = Math.max(slots, mTileOf.length * 2);
+            mTileOf = Arrays.copyOf(mTileOf, capacity);
+            mOrder = new int[capacity];
+        }
+        // Migrations only mean something if every slot still holds the same entity
+        boolean sameEntities = version == mVersion && slots == mSlots;
+        Arrays.fill(mTileStart, 0);
+        for (int slot = 0; slot < slots; slot++) {
+            int tile = kinds.get(slot) == ComponentStore.NO_KIND? -1 : tileOf(xs.get(slot), ys.get(slot));
+            if (sameEntities && tile != mTileOf[slot])
+                mMigrations++;
+            mTileOf[slot] = tile;
+            if (tile >= 0)
+                mTileStart[tile + 1]++;
+        }
+        for (int tile = 0; tile < mTiles.length; tile++)
+            mTileStart[tile + 1] += mTileStart[tile];
+        System.arraycopy(mTileStart, 0, mCursor, 0, mCursor.length);
+        for (int slot = 0; slot < slots; slot++)
+            if (mTileOf[slot] >= 0)
+                mOrder[mCursor[mTileOf[slot]]++] = slot;
+        mSlots = slots;
+        mVersion = version;
+        mTicks++;
+        executor.forRange(mTiles.length, 1, (from, to) -> {
+            for (int tile = from; tile < to; tile++)
+                mTiles[tile].fill(xs, ys);
+        });
+    }
+
+    /**
+     * Calls an action on every entity, one tile per task, with the tile as the current one while it runs. Entities
+     * without a position are done afterwards in slot order.
+     *
+     * @param entities the entities
+     * @param executor the executor to spread the tiles over
+     * @param action   the action to call
+     */
+    public void forEach(EntityStore entities, WorldExecutor executor, Consumer<? super Entity> action) {
+        executor.forRange(mTiles.length, 1, (from, to) -> {
+            for (int tile = from; tile < to; tile++) {
+                mCurrent.set(mTiles[tile]);
+                try {
+                    for (int i = mTileStart[tile]; i < mTileStart[tile + 1]; i++)
+                        action.accept(entities.get(mOrder[i]));
+                } finally {
+                    mCurrent.remove();
+                }
+            }
+        });
+        executor.forRange(mSlots, (from, to) -> {
+            for (int slot = from; slot < to; slot++)
+                if (mTileOf[slot] < 0)
+                    action.accept(entities.get(slot));
+        });
+    }
+
+    /**
+     * Calls an action for every positioned entity within a radius of a point, as of the tick boundary. Answered from a
+     * tile if the query fits inside its halo, else from the world's index.
+     *
+     * @param tile   the tile to answer from, or null to go straight to the index
+     * @param x      the x coordinate of the point
+     * @param y      the y coordinate of the point
+     * @param radius the radius to search within
+     * @param index  the world's spatial index, or null if it has none
+     * @param action the action to call
+     */
+    public void forEachNeighbor(Tile tile, double x, double y, double radius, SpatialIndex index,
+                                SpatialIndex.NeighborAction action) {
+        if (tile != null && tile.covers(x, y, radius)) {
+            mLocalQueries.increment();
+            tile.forEachNeighbor(x, y, radius, action);
+            return;
+        }
+        if (index == null)
+            throw new IllegalStateException("World has no spatial index");
+        mIndexQueries.increment();
+        index.forEachNeighbor(x, y, radius, action);
+    }
+
+    /**
+     * @return The tile being updated on the current thread, or null if there is none.
+     */
+    public Tile getCurrentTile() {
+        return mCurrent.get();
+    }
+
+    public int getTileCount() {
+        return mTiles.length;
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    public double getHalo() {
+        return mHalo;
+    }
+
+    /**
+     * @return The fraction of neighbor queries made through the tiles that were answered by a tile rather than the
+     * world's index.
+     */
+    public double getLocalQueryRate() {
+        long local = mLocalQueries.sum(), total = local + mIndexQueries.sum();
+        return total == 0? 0 : local / (double) total;
+    }
+
+    public Tile getTile(int index) {
+        return mTiles[index];
+    }
+
+    /**
+     * @return The mean number of entities that moved to another tile per tick.
+     */
+    public double getMigrationRate() {
+        return mTicks == 0? 0 : mMigrations / (double) mTicks;
+    }
+
+    /**
+     * @return The most entities owned by a tile over the mean, as of the last assignment. 1 means perfectly even.
+     */
+    public double getImbalance() {
+        int total = mTileStart[mTiles.length];
+        if (total == 0)
+            return 0;
+        int max = 0;
+        for (int tile = 0; tile < mTiles.length; tile++)
+            max = Math.max(max, mTileStart[tile + 1] - mTileStart[tile]);
+        return max * (double) mTiles.length / total;
+    }
+
+    private void layout() {
+        // Each tile at least as wide and tall as the halo, unless it is the only one across or down
+        mColumns = mHalo > 0? Math.max(1, Math.min(mMaxColumns, (int) (mWidth / mHalo))) : mMaxColumns;
+        mRows = mHalo > 0? Math.max(1, Math.min(mMaxRows, (int) (mHeight / mHalo))) : mMaxRows;
+        mTileWidth = mWidth / mColumns;
+        mTileHeight = mHeight / mRows;
+        mTiles = new Tile[mColumns * mRows];
+        for (int row = 0; row < mRows; row++)
+            for (int column = 0; column < mColumns; column++)
+                mTiles[row * mColumns + column] = new Tile(column, row, mCellSize);
+        mTileStart = new int[mTiles.length + 1];
+        mCursor = new int[mTiles.length];
+        mVersion = -1;
+    }
+
+    private int tileOf(double x, double y) {
+        int column = (int) Math.floor(x / mTileWidth);
+        int row = (int) Math.floor(y / mTileHeight);
+        column = column < 0? 0 : column >= mColumns? mColumns - 1 : column;
+        row = row < 0? 0 : row >= mRows? mRows - 1 : row;
+        return row * mColumns + column;
+    }
+
+    /**
+     * One tile of the world, with local copies of the positions of its entities and of those in its halo.
+     */
+    public class Tile {
+
+        private final int mColumn, mRow;
+        private final double mMinX, mMinY, mMaxX, mMaxY;
+        private final UniformGrid mGrid;
+        private int[] mSlots;
+        private double[] mXs;
+        private double[] mYs;
+        private int mOwned;
+        private int mCount;
+
+        private Tile(int column, int row, double cellSize) {
+            mColumn = column;
+            mRow = row;
+            mMinX = column * mTileWidth;
+            mMinY = row * mTileHeight;
+            mMaxX = mMinX + mTileWidth;
+            mMaxY = mMinY + mTileHeight;
+            mGrid = new UniformGrid(mMinX - mHalo, mMinY - mHalo, mTileWidth + 2 * mHalo, mTileHeight + 2 * mHalo,
+                    cellSize);
+            mSlots = new int[0];
+            mXs = new double[0];
+            mYs = new double[0];
+        }
+
+        /**
+         * Calls an action for every entity of this tile or its halo within a radius of a point.
+         *
+         * @see SpatialIndex#forEachNeighbor(double, double, double, SpatialIndex.NeighborAction)
+         */
+        public void forEachNeighbor(double x, double y, double radius, SpatialIndex.NeighborAction action) {
+            mGrid.forEachNeighbor(x, y, radius, action);
+        }
+
+        /**
+         * @return Whether everything within a radius of a point is in this tile or its halo.
+         */
+        public boolean covers(double x, double y, double radius) {
+            return x - radius >= mMinX - mHalo && x + radius <= mMaxX + mHalo
+                    && y - radius >= mMinY - mHalo && y + radius <= mMaxY + mHalo;
+        }
+
+        /**
+         * @param i the index of one of the tile's own entities, less than {@link #getOwnedCount()}
+         *
+         * @return The slot of the entity.
+         */
+        public int getOwnedSlot(int i) {
+            return mSlots[i];
+        }
+
+        /**
+         * @return The number of entities the tile owns.
+         */
+        public int getOwnedCount() {
+            return mOwned;
+        }
+
+        /**
+         * @return The number of entities in the tile's halo.
+         */
+        public int getHaloCount() {
+            return mCount - mOwned;
+        }
+
+        private void fill(DoubleColumn xs, DoubleColumn ys) {
+            mCount = 0;
+            int tile = mRow * mColumns + mColumn;
+            for (int i = mTileStart[tile]; i < mTileStart[tile + 1]; i++)
+                append(mOrder[i], xs, ys);
+            mOwned = mCount;
+            for (int row = Math.max(0, mRow - 1); row <= Math.min(mRows - 1, mRow + 1); row++) {
+                for (int column = Math.max(0, mColumn - 1); column <= Math.min(mColumns - 1, mColumn + 1); column++) {
+                    int other = row * mColumns + column;
+                    if (other == tile)
+                        continue;
+                    for (int i = mTileStart[other]; i < mTileStart[other + 1]; i++) {
+                        int slot = mOrder[i];
+                        double x = xs.get(slot), y = ys.get(slot);
+                        if (x >= mMinX - mHalo && x <= mMaxX + mHalo && y >= mMinY - mHalo && y <= mMaxY + mHalo)
+                            append(slot, xs, ys);
+                    }
+                }
+            }
+            mGrid.build(mSlots, mXs, mYs, mCount);
+        }
+
+        private void append(int slot, DoubleColumn xs, DoubleColumn ys) {
+            if (mCount == mSlots.length) {
+                int capacity = Math.max(16, mSlots.length * 2);
+                mSlots = Arrays.copyOf(mSlots, capacity);
+                mXs = Arrays.copyOf(mXs, capacity);
+                mYs = Arrays.copyOf(mYs, capacity);
+            }
+            mSlots[mCount] = slot;
+            mXs[mCount] = xs.get(slot);
+            mYs[mCount] = ys.get(slot);
+            mCount++;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package net.popsim.src.simu;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+
+/**
+ * The part of the world shown on the canvas, for worlds bigger than the screen. It can be dragged around and zoomed
+ * with the scroll wheel, but never shows anything outside the world.
+ * <br>The FX thread moves the viewport while the update thread reads it to take snapshots, so every method is
+ * synchronized.
+ */
+public class Viewport {
+
+    private static final double MAX_SCALE = 16;
+    // Scrolling one notch zooms by this much
+    private static final double ZOOM_STEP = 1.1;
+    private static final double NOTCH = 40;
+
+    private final double mWorldWidth;
+    private final double mWorldHeight;
+    private final int mWidth;
+    private final int mHeight;
+    private final double mMinScale;
+    private double mX;
+    private double mY;
+    private double mScale;
+    private double mDragX;
+    private double mDragY;
+
+    /**
+     * Creates a viewport at a scale of one, centered on the world.
+     *
+     * @param worldWidth  the width of the world
+     * @param worldHeight the height of the world
+     * @param width       the width of the canvas, in pixels
+     * @param height      the height of the canvas, in pixels
+     */
+    public Viewport(double worldWidth, double worldHeight, int width, int height) {
+        mWorldWidth = worldWidth;
+        mWorldHeight = worldHeight;
+        mWidth = width;
+        mHeight = height;
+        // Zoomed out any further and the view would be wider or taller than the world
+        mMinScale = Math.max(width / worldWidth, height / worldHeight);
+        mScale = Math.max(1, mMinScale);
+        mX = (worldWidth - width / mScale) / 2;
+        mY = (worldHeight - height / mScale) / 2;
+    }
+
+    /**
+     * Pans with mouse drags and zooms about the cursor with the scroll wheel.
+     *
+     * @param canvas the canvas the viewport is shown on
+     */
+    public void install(Canvas canvas) {
+        canvas.setOnMousePressed(event -> {
+            synchronized (this) {
+                mDragX = event.getX();
+                mDragY = event.getY();
+            }
+        });
+        canvas.setOnMouseDragged(event -> {
+            synchronized (this) {
+                pan(event.getX() - mDragX, event.getY() - mDragY);
+                mDragX = event.getX();
+                mDragY = event.getY();
+            }
+        });
+        canvas.setOnScroll(event -> {
+            zoom(Math.pow(ZOOM_STEP, event.getDeltaY() / NOTCH), event.getX(), event.getY());
+            event.consume();
+        });
+    }
+
+    /**
+     * Moves the view so the world follows the cursor.
+     *
+     * @param dx how far the cursor moved right, in pixels
+     * @param dy how far the cursor moved down, in pixels
+     */
+    public synchronized void pan(double dx, double dy) {
+        mX -= dx / mScale;
+        mY -= dy / mScale;
+        clamp();
+    }
+
+    /**
+     * Zooms the view, keeping the point of the world under a pixel where it is.
+     *
+     * @param factor how much bigger things should look, so less than one zooms out
+     * @param x      the x coordinate of the pixel to zoom about
+     * @param y      the y coordinate of the pixel to zoom about
+     */
+    public synchronized void zoom(double factor, double x, double y) {
+        double worldX = toWorldX(x), worldY = toWorldY(y);
+        mScale = Math.max(mMinScale, Math.min(MAX_SCALE, mScale * factor));
+        mX = worldX - x / mScale;
+        mY = worldY - y / mScale;
+        clamp();
+    }
+
+    /**
+     * @param x the x coordinate of a pixel on the canvas
+     *
+     * @return The x coordinate of the world under that pixel.
+     */
+    public synchronized double toWorldX(double x) {
+        return mX + x / mScale;
+    }
+
+    /**
+     * @param y the y coordinate of a pixel on the canvas
+     *
+     * @return The y coordinate of the world under that pixel.
+     */
+    public synchronized double toWorldY(double y) {
+        return mY + y / mScale;
+    }
+
+    /**
+     * Makes a snapshot take its circles through this view.
+     *
+     * @param snapshot the snapshot about to be filled
+     */
+    public synchronized void apply(Snapshot snapshot) {
+        snapshot.setView(mX, mY, mScale, mWidth, mHeight);
+    }
+
+    /**
+     * Transforms a graphics context so drawing in world coordinates lands where this view shows it. Callers should
+     * save the context's state first and restore it after.
+     *
+     * @param gfx the graphics context to transform
+     */
+    public synchronized void apply(GraphicsContext gfx) {
+        gfx.scale(mScale, mScale);
+        gfx.translate(-mX, -mY);
+    }
+
+    public synchronized double getMinX() {
+        return mX;
+    }
+
+    public synchronized double getMinY() {
+        return mY;
+    }
+
+    public synchronized double getMaxX() {
+        return mX + mWidth / mScale;
+    }
+
+    public synchronized double getMaxY() {
+        return mY + mHeight / mScale;
+    }
+
+    public synchronized double getScale() {
+        return mScale;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    private void clamp() {
+        mX = Math.max(0, Math.min(mWorldWidth - mWidth / mScale, mX));
+        mY = Math.max(0, Math.min(mWorldHeight - mHeight / mScale, mY));
+    }
+}
@@ -1,31 +1,86 @@
 package net.popsim.src.simu;
 
 import javafx.scene.canvas.GraphicsContext;
+import net.popsim.src.simu.force.ForceField;
+import net.popsim.src.simu.force.ForceKernel;
+import net.popsim.src.simu.force.PairInteraction;
+import net.popsim.src.simu.force.PairKernel;
+import net.popsim.src.simu.spatial.NeighborList;
+import net.popsim.src.simu.spatial.QuadTree;
+import net.popsim.src.simu.spatial.SpatialIndex;
+import net.popsim.src.simu.spatial.UniformGrid;
+import net.popsim.src.util.Histogram;
+import net.popsim.src.util.config.WritableData;
+import net.popsim.src.util.random.CounterRng;
+import net.popsim.src.util.random.LegacyRng;
+import net.popsim.src.util.random.Rng;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 public class World {
 
-    private static <T> List<T> makeUnmodifiableCopy(List<T> list) {
-        List<T> temp = new ArrayList<>(list.size());
-        temp.addAll(list);
-        return Collections.unmodifiableList(temp);
-    }
-
     protected final Simulation mSimulation;
     protected final Context mContext;
     protected final Random mRng;
-    protected final ArrayList<Entity> mEntities;
+    protected final WorldExecutor mExecutor;
+    protected final ComponentStore mComponents;
+    protected final EntityStore mEntities;
+    protected final LoadBalancer mUpdateBalancer;
+    protected final SpatialIndex mSpatialIndex;
+    protected final TileDecomposition mTiles;
+    protected final List<NeighborList> mNeighborLists;
+    protected final List<ForceField> mForceFields;
+    protected final List<PairInteraction> mPairInteractions;
 
-    private List<Entity> mEntityFreeze;
     private long mTicks;
+    private final AtomicLong mNextId;
+    private final ThreadLocal<Entity> mCurrentEntity;
+    private final Snapshot.HeatmapScratch mHeatmapScratch;
+    private final Consumer<Entity> mUpdateAction;
+    private final Consumer<Entity> mFinishAction;
 
     public World(Simulation simulation, Context context) {
         mSimulation = simulation;
         mContext = context;
         mRng = new Random(mContext.getRngSeed());
-        mEntityFreeze = makeUnmodifiableCopy(mEntities = new ArrayList<>());
+        mExecutor = new WorldExecutor(mContext.getWorkerThreads(), mContext.getChunkSize());
+        mComponents = new ComponentStore(mContext.getComponentStorage());
+        mEntities = new EntityStore(mComponents, mExecutor);
+        mUpdateBalancer = mContext.isLoadBalancing()? new LoadBalancer(mExecutor.getParallelism()) : null;
+        switch (mContext.getSpatialIndex()) {
+            case GRID:
+                mSpatialIndex = new UniformGrid(getWidth(), getHeight(), mContext.getSpatialCellSize());
+                break;
+            case QUADTREE:
+                mSpatialIndex = new QuadTree(mContext.getSpatialLeafSize());
+                break;
+            default:
+                mSpatialIndex = null;
+        }
+        mTiles = mContext.getPartitioning() == WorldExecutor.Partitioning.TILES? createTiles() : null;
+        mNextId = new AtomicLong();
+        mCurrentEntity = new ThreadLocal<>();
+        mHeatmapScratch = new Snapshot.HeatmapScratch();
+        mUpdateAction = this::updateEntity;
+        mFinishAction = this::finishEntity;
+        mNeighborLists = new ArrayList<>();
+        mForceFields = new ArrayList<>();
+        mPairInteractions = new ArrayList<>();
+    }
+
+    private TileDecomposition createTiles() {
+        int columns = mContext.getTileColumns(), rows = mContext.getTileRows();
+        if (columns == 0 || rows == 0) {
+            // A few roughly square tiles per thread
+            int tiles = mExecutor.getParallelism() * 4;
+            columns = Math.max(1, (int) Math.round(Math.sqrt(tiles * (double) getWidth() / getHeight())));
+            rows = Math.max(1, (tiles + columns - 1) / columns);
+        }
+        return new TileDecomposition(getWidth(), getHeight(), columns, rows, mContext.getTileHalo(),
+                mContext.getSpatialCellSize());
     }
 
     public void init() {
@@ -34,26 +89,278 @@ public class World {
     }
 
     public void preUpdate() {
-        mEntityFreeze = makeUnmodifiableCopy(mEntities);
+        // Apply the spawns and kills buffered since the last tick
+        mEntities.commit();
+        // Index the positions the entities finished the last tick at
+        if (mSpatialIndex != null)
+            mSpatialIndex.build(mComponents, mEntities.size(), mExecutor);
+        // Entities migrate between tiles here, at the tick boundary
+        if (mTiles != null)
+            mTiles.assign(mComponents, mEntities.size(), mEntities.getVersion(), mExecutor);
+        for (NeighborList list : mNeighborLists)
+            list.refresh(mComponents, mEntities.size(), mEntities.getVersion(), mSpatialIndex, mTiles, mExecutor);
+        for (ForceField field : mForceFields)
+            field.evaluate(mComponents, mEntities.size(), mExecutor);
     }
 
     public void update() {
-        forEachEntityParallel(Entity::update);
+        // Pairs go first so entities can read what they summed to
+        for (PairInteraction interaction : mPairInteractions)
+            interaction.evaluate(mComponents, mEntities.size(), mSpatialIndex, mExecutor);
+        // Update cost varies a lot between entities, so spread it by what it cost last tick
+        if (mTiles != null)
+            mTiles.forEach(mEntities, mExecutor, mUpdateAction);
+        else if (mUpdateBalancer != null)
+            mEntities.forEachParallel(mUpdateAction, mUpdateBalancer);
+        else forEachEntityParallel(mUpdateAction);
         mTicks++;
     }
 
     public void postUpdate() {
-        forEachEntityParallel(Entity::finish);
+        forEachEntityParallel(mFinishAction);
     }
 
+    // The entity being updated on a thread is the parent of whatever it spawns
+    private void updateEntity(Entity e) {
+        mCurrentEntity.set(e);
+        e.update();
+        mCurrentEntity.set(null);
+    }
+
+    private void finishEntity(Entity e) {
+        mCurrentEntity.set(e);
+        e.finish();
+        mCurrentEntity.set(null);
+    }
+
+    /**
+     * Releases the world's worker threads. Called when the simulation shuts down.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Renders the world entity by entity, in world coordinates, with the context already transformed by the viewport.
+     * Only entities that may be in view are drawn. Called on the FX thread in lockstep with updates.
+     *
+     * @param gfx the graphics context to draw on
+     */
     public void render(GraphicsContext gfx) {
-        forEachEntity(entity -> entity.render(gfx));
+        Viewport viewport = mSimulation.getViewport();
+        if (viewport == null)
+            forEachEntity(entity -> entity.render(gfx));
+        else forEachEntityIn(viewport.getMinX(), viewport.getMinY(), viewport.getMaxX(), viewport.getMaxY(),
+                entity -> entity.render(gfx));
+    }
+
+    /**
+     * Fills a snapshot with the renderable state of the world. Called on the update thread after {@link #postUpdate()}.
+     * Past the heatmap threshold the snapshot is drawn as a density heatmap instead of circle by circle.
+     *
+     * @param snapshot the snapshot to fill
+     */
+    public void snapshot(Snapshot snapshot) {
+        snapshot.clear(mTicks);
+        Viewport viewport = mSimulation.getViewport();
+        if (viewport != null)
+            viewport.apply(snapshot);
+        else snapshot.setView(0, 0, 1, getWidth(), getHeight());
+        forEachEntityIn(snapshot.getViewMinX(), snapshot.getViewMinY(), snapshot.getViewMaxX(),
+                snapshot.getViewMaxY(), entity -> entity.snapshot(snapshot));
+        int width = snapshot.getViewWidth(), height = snapshot.getViewHeight();
+        int threshold = mContext.getHeatmapThreshold();
+        if (threshold > 0 && snapshot.size() > threshold)
+            snapshot.heatmap(width, height, mContext.getHeatmapCellSize(), mHeatmapScratch, mExecutor);
+        else if (mContext.isBatchedRendering())
+            snapshot.rasterize(width, height, mExecutor);
+    }
+
+    /**
+     * Renders a snapshot of the world. Called on the FX thread, concurrently with updates.
+     *
+     * @param gfx      the graphics context to draw on
+     * @param snapshot the most recent snapshot
+     */
+    public void render(GraphicsContext gfx, Snapshot snapshot) {
+        snapshot.render(gfx);
+    }
+
+    /**
+     * Writes summary metrics about the world, such as for a row in an ensemble's result table.
+     * Subclasses should call through and add their own.
+     *
+     * @param metrics the data to write the metrics to
+     */
+    public void report(WritableData metrics) {
+        metrics.set("Entities", getEntityCount());
+        if (mUpdateBalancer != null) {
+            Histogram imbalances = mUpdateBalancer.getImbalances();
+            metrics.set("Update imbalance p50", imbalances.getValueAtPercentile(50) / 1000D);
+            metrics.set("Update imbalance p99", imbalances.getValueAtPercentile(99) / 1000D);
+        }
+        if (mTiles != null) {
+            metrics.set("Tile migrations per tick", mTiles.getMigrationRate());
+            metrics.set("Tile imbalance", mTiles.getImbalance());
+            metrics.set("Tile local query rate", mTiles.getLocalQueryRate());
+        }
+        for (int i = 0; i < mNeighborLists.size(); i++) {
+            NeighborList list = mNeighborLists.get(i);
+            String suffix = i == 0? "" : " " + (i + 1);
+            metrics.set("Neighbor list reuse rate" + suffix, list.getReuseRate());
+            metrics.set("Neighbor list hit rate" + suffix, list.getHitRate());
+        }
     }
 
     public long getNewRandomSeed() {
         return mRng.nextLong();
     }
 
+    /**
+     * Picks the id for a new entity. An entity made while another is being updated or finished gets an id derived from
+     * that one's; any other gets the next in sequence.
+     *
+     * @return The new id.
+     */
+    public long newEntityId() {
+        Entity parent = mCurrentEntity.get();
+        if (parent != null)
+            return CounterRng.mix(parent.getId() ^ CounterRng.mix(++parent.mChildren));
+        return mNextId.getAndIncrement();
+    }
+
+    /**
+     * @param id the id of the entity the generator is for
+     *
+     * @return A random generator for an entity, of the configured type.
+     */
+    public Rng newRng(long id) {
+        switch (mContext.getRngType()) {
+            case LEGACY:
+                return new LegacyRng(getNewRandomSeed());
+            default:
+                return new CounterRng(mContext.getRngSeed(), id, this::getTicks);
+        }
+    }
+
+    /**
+     * @return The columns of entity state, indexed by slot.
+     */
+    public ComponentStore getComponents() {
+        return mComponents;
+    }
+
+    /**
+     * @return The executor the world's parallel phases run on, for subclasses and entities with parallel work of
+     * their own.
+     */
+    public WorldExecutor getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * @return The balancer spreading the update phase over threads, or null if load balancing is off.
+     */
+    public LoadBalancer getUpdateBalancer() {
+        return mUpdateBalancer;
+    }
+
+    /**
+     * @return The index over entity positions, or null if the world has none.
+     */
+    public SpatialIndex getSpatialIndex() {
+        return mSpatialIndex;
+    }
+
+    /**
+     * @return The tiles the world is updated in, or null if it is updated by slot.
+     */
+    public TileDecomposition getTiles() {
+        return mTiles;
+    }
+
+    /**
+     * Calls an action for every positioned entity within a radius of a point, as of the start of the tick.
+     * During a tiled update, queries that fit in the current tile's halo are answered from the tile.
+     *
+     * @see SpatialIndex#forEachNeighbor(double, double, double, SpatialIndex.NeighborAction)
+     */
+    public void forEachNeighbor(double x, double y, double radius, SpatialIndex.NeighborAction action) {
+        TileDecomposition.Tile tile = mTiles != null? mTiles.getCurrentTile() : null;
+        if (tile != null) {
+            mTiles.forEachNeighbor(tile, x, y, radius, mSpatialIndex, action);
+            return;
+        }
+        if (mSpatialIndex == null)
+            throw new IllegalStateException("World has no spatial index");
+        mSpatialIndex.forEachNeighbor(x, y, radius, action);
+    }
+
+    /**
+     * Adds cached lists of the positioned entities near each one, refreshed each tick before the update. Needs a
+     * spatial index. When updating by tiles, the halo is widened to take in the lists' searches, and the lists are built
+     * from the tiles. Usually called from the world's constructor or {@link #init()}.
+     *
+     * @param range the range entities look for neighbors within
+     *
+     * @return The lists, for entities to query by slot.
+     */
+    public NeighborList addNeighborList(double range) {
+        if (mSpatialIndex == null)
+            throw new IllegalStateException("Neighbor lists need a spatial index");
+        NeighborList list = new NeighborList(range, mContext.getNeighborSkin());
+        if (mTiles != null)
+            mTiles.reach(range + list.getSkin());
+        mNeighborLists.add(list);
+        return list;
+    }
+
+    /**
+     * Adds a force between every pair of entities of a type, worked out each tick before the update. Usually called
+     * from the world's constructor or {@link #init()}.
+     *
+     * @param type   the type of entities that push on each other, subclasses included
+     * @param kernel the force between two entities
+     *
+     * @return The field, for entities to read their force from by slot.
+     */
+    public ForceField addForceField(Class<? extends Entity> type, ForceKernel kernel) {
+        ForceField field = new ForceField(entitiesOf(type), kernel, mContext.getForceOpeningAngle(),
+                mContext.isExactForces());
+        mForceFields.add(field);
+        return field;
+    }
+
+    /**
+     * Adds an interaction worked out once for every unordered pair of positioned entities within a range, each tick
+     * at the start of the update. Usually called from the world's constructor or {@link #init()}.
+     *
+     * @param range  the range within which pairs interact
+     * @param kernel the interaction
+     *
+     * @return The interaction, for entities to read their summed effect from by slot.
+     */
+    public PairInteraction addPairInteraction(double range, PairKernel kernel) {
+        PairInteraction interaction = new PairInteraction(range, kernel);
+        mPairInteractions.add(interaction);
+        return interaction;
+    }
+
+    /**
+     * Adds an interaction worked out once for every unordered pair of positioned entities within the range of some
+     * neighbor lists, found through those lists rather than the spatial index.
+     *
+     * @param neighbors the lists to find pairs in, from {@link #addNeighborList(double)}
+     * @param kernel    the interaction
+     *
+     * @return The interaction, for entities to read their summed effect from by slot.
+     */
+    public PairInteraction addPairInteraction(NeighborList neighbors, PairKernel kernel) {
+        PairInteraction interaction = new PairInteraction(neighbors, kernel);
+        mPairInteractions.add(interaction);
+        return interaction;
+    }
+
     public Context getContext() {
         return mContext;
     }
@@ -66,37 +373,106 @@ public class World {
         return mContext.getWorldHeight();
     }
 
-    public synchronized void spawnEntity(Entity e) {
+    /**
+     * Spawns an entity. It takes part in ticks from the start of the next one.
+     *
+     * @param e the entity to spawn
+     */
+    public void spawnEntity(Entity e) {
         if (e == null)
             throw new IllegalArgumentException("Cannot spawn null entity");
-        else mEntities.add(e);
+        else mEntities.spawn(e);
+    }
+
+    /**
+     * Kills an entity. It is removed at the start of the next tick.
+     *
+     * @param e the entity to kill
+     */
+    public void killEntity(Entity e) {
+        mEntities.kill(e);
     }
 
-    public synchronized void killEntity(Entity e) {
-        mEntities.remove(e);
+    /**
+     * @return The number of entities taking part in the current tick.
+     */
+    public int getEntityCount() {
+        return mEntities.size();
     }
 
     public Iterator<Entity> getEntityIterator() {
         return getEntityIterator(0);
     }
 
+    /**
+     * @param start an entity in the current tick
+     *
+     * @return An iterator over the entities after the given one.
+     */
     public Iterator<Entity> getEntityIterator(Entity start) {
-        int index = mEntityFreeze.indexOf(start);
-        if (index < 0 || index >= mEntityFreeze.size())
-            throw new IllegalArgumentException("Entity is not in the entity freeze");
-        return getEntityIterator(index + 1);
+        int slot = start.getSlot();
+        if (slot < 0 || mEntities.get(slot) != start)
+            throw new IllegalArgumentException("Entity is not in the world");
+        return getEntityIterator(slot + 1);
     }
 
     public Iterator<Entity> getEntityIterator(int start) {
-        return mEntityFreeze.listIterator(start);
+        return mEntities.view().listIterator(start);
     }
 
     public void forEachEntity(Consumer<? super Entity> action) {
-        mEntityFreeze.forEach(action);
+        mEntities.view().forEach(action);
+    }
+
+    /**
+     * Calls an action for every entity that may be in a rectangle of the world, for culling what cannot be seen.
+     * Positioned entities are found through the spatial index as of the start of the tick, within the viewport margin
+     * of the rectangle, so some just outside it are visited too and ones spawned this tick are not. Entities that had no
+     * kind once they spawned are always visited. With no spatial index, or a rectangle covering the world, every entity
+     * is visited.
+     *
+     * @param minX   the left edge of the rectangle
+     * @param minY   the top edge of the rectangle
+     * @param maxX   the right edge of the rectangle
+     * @param maxY   the bottom edge of the rectangle
+     * @param action the action to call
+     */
+    public void forEachEntityIn(double minX, double minY, double maxX, double maxY, Consumer<? super Entity> action) {
+        if (mSpatialIndex == null || minX <= 0 && minY <= 0 && maxX >= getWidth() && maxY >= getHeight()) {
+            forEachEntity(action);
+            return;
+        }
+        double margin = mContext.getViewportMargin();
+        mSpatialIndex.forEachInRect(minX - margin, minY - margin, maxX + margin, maxY + margin,
+                (slot, x, y) -> action.accept(mEntities.get(slot)));
+        // The index leaves these out, and they could draw anywhere
+        for (Entity e : mEntities.getUnpositioned())
+            action.accept(e);
     }
 
     public void forEachEntityParallel(Consumer<? super Entity> action) {
-        mEntityFreeze.parallelStream().forEach(action);
+        mEntities.forEachParallel(action);
+    }
+
+    /**
+     * @see EntityStore#entitiesOf(Class)
+     */
+    public <T extends Entity> EntityView<T> entitiesOf(Class<T> type) {
+        return mEntities.entitiesOf(type);
+    }
+
+    /**
+     * @see EntityStore#forEachPair(BiConsumer)
+     */
+    public void forEachPair(BiConsumer<? super Entity, ? super Entity> action) {
+        mEntities.forEachPair(action);
+    }
+
+    /**
+     * @see EntityStore#forEachPairParallel(BiConsumer)
+     */
+    public void forEachPairParallel(BiConsumer<? super Entity, ? super Entity> action) {
+        mEntities.forEachPairParallel(action);
     }
 
     public long getTicks() {
@@ -0,0 +1,178 @@
+package net.popsim.src.simu;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A fork/join pool owned by a world, for running its parallel phases.
+ * Work is given as a range of indices, which is split into chunks that run as tasks. Each call waits for every chunk to
+ * finish, so consecutive calls are separated by a barrier.
+ */
+public class WorldExecutor {
+
+    /**
+     * How the entities of a phase are split between tasks.
+     */
+    public enum Partitioning {
+        SLOTS("Slots"),
+        TILES("Tiles");
+
+        private final String mName;
+
+        Partitioning(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public static Partitioning fromName(String name) {
+            for (Partitioning partitioning : values())
+                if (partitioning.mName.equalsIgnoreCase(name))
+                    return partitioning;
+            throw new IllegalArgumentException("Unknown update partitioning: " + name);
+        }
+    }
+
+    /**
+     * Acts on a range of indices.
+     */
+    @FunctionalInterface
+    public interface RangeAction {
+
+        /**
+         * @param from the first index, inclusive
+         * @param to   the last index, exclusive
+         */
+        void run(int from, int to);
+    }
+
+    /**
+     * Chunks per thread when the chunk size is picked automatically. More chunks leave room for work stealing.
+     */
+    private static final int AUTO_CHUNKS_PER_THREAD = 8;
+
+    private final ForkJoinPool mPool;
+    private final int mChunkSize;
+
+    /**
+     * Creates a new WorldExecutor.
+     *
+     * @param threads   the number of worker threads, or zero for one per processor
+     * @param chunkSize the most indices to run in one task, or zero to pick from the range size
+     */
+    public WorldExecutor(int threads, int chunkSize) {
+        if (threads <= 0)
+            threads = Runtime.getRuntime().availableProcessors();
+        mPool = new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("World Worker " + t.getPoolIndex());
+            return t;
+        }, null, false);
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Runs an action over the range [0, size) in chunks and waits for all of them.
+     *
+     * @param size   the size of the range
+     * @param action the action to run on each chunk
+     */
+    public void forRange(int size, RangeAction action) {
+        if (size <= 0)
+            return;
+        int chunk = getChunkSize(size);
+        if (size <= chunk)
+            action.run(0, size);
+        else mPool.invoke(new RangeTask(0, size, chunk, action));
+    }
+
+    /**
+     * Runs an action over the range [0, size) in chunks of a given size and waits for all of them.
+     *
+     * @param size   the size of the range
+     * @param chunk  the most indices a task gets
+     * @param action the action to run on each chunk
+     */
+    public void forRange(int size, int chunk, RangeAction action) {
+        if (size <= 0)
+            return;
+        if (size <= chunk)
+            action.run(0, size);
+        else mPool.invoke(new RangeTask(0, size, chunk, action));
+    }
+
+    /**
+     * Runs an action over the range [0, size) in partitions of about equal cost and waits for all of them.
+     *
+     * @param size     the size of the range
+     * @param action   the action to run on each block of the range
+     * @param balancer the balancer that plans the partitions and measures their cost
+     */
+    public void forRange(int size, RangeAction action, LoadBalancer balancer) {
+        if (size <= 0)
+            return;
+        int partitions = balancer.plan(size);
+        mPool.invoke(new RangeTask(0, partitions, 1, (from, to) -> {
+            for (int p = from; p < to; p++)
+                balancer.run(p, action);
+        }));
+        balancer.finish();
+    }
+
+    /**
+     * Runs a task on the pool and waits for its result, for work that splits itself, such as recursive builds.
+     *
+     * @param task the task to run
+     *
+     * @return The result of the task.
+     */
+    public <T> T invoke(ForkJoinTask<T> task) {
+        return mPool.invoke(task);
+    }
+
+    /**
+     * @param size the size of a range
+     *
+     * @return The number of indices each task of the range gets.
+     */
+    public int getChunkSize(int size) {
+        if (mChunkSize > 0)
+            return mChunkSize;
+        return Math.max(1, size / (getParallelism() * AUTO_CHUNKS_PER_THREAD));
+    }
+
+    public int getParallelism() {
+        return mPool.getParallelism();
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private static class RangeTask extends RecursiveAction {
+
+        private final int mFrom, mTo, mChunk;
+        private final RangeAction mAction;
+
+        private RangeTask(int from, int to, int chunk, RangeAction action) {
+            mFrom = from;
+            mTo = to;
+            mChunk = chunk;
+            mAction = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= mChunk) {
+                mAction.run(mFrom, mTo);
+                return;
+            }
+            int mid = (mFrom + mTo) >>> 1;
+            invokeAll(new RangeTask(mFrom, mid, mChunk, mAction), new RangeTask(mid, mTo, mChunk, mAction));
+        }
+    }
+}
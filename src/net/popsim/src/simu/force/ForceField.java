@@ -0,0 +1,194 @@
+package net.popsim.src.simu.force;
+
+import net.popsim.src.simu.*;
+import net.popsim.src.simu.spatial.QuadTree;
+import net.popsim.src.util.DoubleColumn;
+
+/**
+ * The total force on every body of some type from every other, for a given {@link ForceKernel}.
+ * <br>Forces are found with a Barnes-Hut tree: a group of bodies that looks small enough from a body, by the opening
+ * angle theta, acts as one body at its center of mass. A smaller theta is more accurate and slower, and zero is exact.
+ * The tree is a {@link QuadTree}, whose nodes' centroids are the centers of mass since bodies are all alike.
+ * The exact mode skips the tree and sums over every pair. Bodies all have unit strength.
+ * <br>Forces are evaluated before the update, from the positions the bodies finished the last tick at, and can then be
+ * read by slot from any thread.
+ */
+public class ForceField {
+
+    private static final int LEAF_SIZE = 8;
+
+    private final EntityView<?> mBodies;
+    private final ForceKernel mKernel;
+    private final double mTheta2;
+    private final boolean mExact;
+    private int[] mSlots;
+    private double[] mXs;
+    private double[] mYs;
+    private int mSize;
+    private double[] mForceX;
+    private double[] mForceY;
+    private final QuadTree mTree;
+
+    /**
+     * Creates a new ForceField.
+     *
+     * @param bodies the bodies that push on each other
+     * @param kernel the force between two bodies
+     * @param theta  the opening angle
+     * @param exact  whether to sum over every pair instead of using the tree
+     */
+    public ForceField(EntityView<?> bodies, ForceKernel kernel, double theta, boolean exact) {
+        mBodies = bodies;
+        mKernel = kernel;
+        mTheta2 = theta * theta;
+        mExact = exact;
+        mSlots = new int[0];
+        mXs = new double[0];
+        mYs = new double[0];
+        mForceX = new double[0];
+        mForceY = new double[0];
+        mTree = new QuadTree(LEAF_SIZE);
+    }
+
+    /**
+     * Works out the force on every body.
+     *
+     * @param components the columns to read positions from
+     * @param slots      the number of slots in use
+     * @param executor   the executor to spread the work over
+     */
+    public void evaluate(ComponentStore components, int slots, WorldExecutor executor) {
+        gather(components);
+        if (mForceX.length < slots) {
+            mForceX = new double[Math.max(slots, mForceX.length * 2)];
+            mForceY = new double[mForceX.length];
+        }
+        if (mSize == 0)
+            return;
+        if (mExact) {
+            executor.forRange(mSize, (from, to) -> {
+                for (int i = from; i < to; i++)
+                    sumExact(i);
+            });
+            return;
+        }
+        mTree.build(mSlots, mXs, mYs, mSize, executor);
+        QuadTree.Node root = mTree.getRoot();
+        // Bodies go in the tree's order, so ones near each other walk the same nodes one after another
+        executor.forRange(mSize, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int slot = mTree.getSlot(i);
+                mForceX[slot] = 0;
+                mForceY[slot] = 0;
+                sumTree(root, slot, mTree.getX(i), mTree.getY(i));
+            }
+        });
+    }
+
+    /**
+     * @param slot the slot of a body
+     *
+     * @return The x component of the force on the body.
+     */
+    public double getForceX(int slot) {
+        return mForceX[slot];
+    }
+
+    /**
+     * @param slot the slot of a body
+     *
+     * @return The y component of the force on the body.
+     */
+    public double getForceY(int slot) {
+        return mForceY[slot];
+    }
+
+    public ForceKernel getKernel() {
+        return mKernel;
+    }
+
+    private void gather(ComponentStore components) {
+        DoubleColumn xs = components.getXColumn();
+        DoubleColumn ys = components.getYColumn();
+        int size = mBodies.size();
+        if (mSlots.length < size) {
+            int capacity = Math.max(size, mSlots.length * 2);
+            mSlots = new int[capacity];
+            mXs = new double[capacity];
+            mYs = new double[capacity];
+        }
+        int count = 0;
+        for (int a = 0; a < mBodies.getArchetypeCount(); a++) {
+            Archetype<?> archetype = mBodies.getArchetype(a);
+            for (int i = 0; i < archetype.size(); i++) {
+                int slot = archetype.getSlot(i);
+                mSlots[count] = slot;
+                mXs[count] = xs.get(slot);
+                mYs[count] = ys.get(slot);
+                count++;
+            }
+        }
+        mSize = count;
+    }
+
+    private void sumExact(int body) {
+        double x = mXs[body], y = mYs[body];
+        double fx = 0, fy = 0;
+        for (int i = 0; i < mSize; i++) {
+            double dx = x - mXs[i];
+            double dy = y - mYs[i];
+            double distance2 = dx * dx + dy * dy;
+            if (distance2 == 0)
+                continue;
+            double scale = mKernel.scale(distance2);
+            fx += scale * dx;
+            fy += scale * dy;
+        }
+        mForceX[mSlots[body]] = fx;
+        mForceY[mSlots[body]] = fy;
+    }
+
+    private void sumTree(QuadTree.Node node, int slot, double x, double y) {
+        double minX = node.getMinX(), minY = node.getMinY(), maxX = node.getMaxX(), maxY = node.getMaxY();
+        double range = mKernel.getRange();
+        if (range != Double.POSITIVE_INFINITY) {
+            double bx = x < minX? minX - x : x > maxX? x - maxX : 0;
+            double by = y < minY? minY - y : y > maxY? y - maxY : 0;
+            if (bx * bx + by * by > range * range)
+                return;
+        }
+        double dx = x - node.getCenterX();
+        double dy = y - node.getCenterY();
+        double distance2 = dx * dx + dy * dy;
+        double extent = node.getExtent();
+        boolean inside = x >= minX && x <= maxX && y >= minY && y <= maxY;
+        if (!inside && extent * extent < mTheta2 * distance2) {
+            // Far enough to act as one body
+            double scale = node.size() * mKernel.scale(distance2);
+            mForceX[slot] += scale * dx;
+            mForceY[slot] += scale * dy;
+            return;
+        }
+        if (node.isLeaf()) {
+            double fx = 0, fy = 0;
+            for (int i = node.getFrom(); i < node.getTo(); i++) {
+                double ex = x - mTree.getX(i);
+                double ey = y - mTree.getY(i);
+                double d2 = ex * ex + ey * ey;
+                if (d2 == 0)
+                    continue;
+                double scale = mKernel.scale(d2);
+                fx += scale * ex;
+                fy += scale * ey;
+            }
+            mForceX[slot] += fx;
+            mForceY[slot] += fy;
+            return;
+        }
+        for (int q = 0; q < 4; q++) {
+            QuadTree.Node child = node.getChild(q);
+            if (child != null)
+                sumTree(child, slot, x, y);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package net.popsim.src.simu.force;
+
+/**
+ * A radial force between two bodies, as a function of the distance between them.
+ * The force on a body points along its displacement from the source, so a kernel only gives how strong it is.
+ */
+@FunctionalInterface
+public interface ForceKernel {
+
+    /**
+     * @param distance2 the squared distance from the source to the body, always more than zero
+     *
+     * @return The force on the body per unit of displacement from a source of unit strength. Positive pushes the body
+     * away, negative pulls it in.
+     */
+    double scale(double distance2);
+
+    /**
+     * Groups of bodies further than this from a body are skipped entirely.
+     *
+     * @return The distance past which the kernel is zero.
+     */
+    default double getRange() {
+        return Double.POSITIVE_INFINITY;
+    }
+}
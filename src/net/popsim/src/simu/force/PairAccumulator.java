@@ -0,0 +1,167 @@
+package net.popsim.src.simu.force;
+
+import java.util.Arrays;
+
+/**
+ * The two dimensional effects one chunk of pairs has on entities, private to the thread working on that chunk.
+ * <br>A chunk covers a range of entities, by slot or by some other order, and effects on those are summed as they are
+ * added. Effects on any other entity are logged in the order they are added. Once the chunk is done its sums are logged
+ * too, and the log is sorted by bucket of slots so each bucket can be summed on its own. Sorting keeps the order within
+ * a bucket, so every slot sees its effects in the same order every run.
+ * <br>Effects that have no direction, such as a contact between two entities at the same position, are counted rather
+ * than added, and entities can work out what to do about them.
+ */
+public final class PairAccumulator {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int mFrom;
+    private int mTo;
+    private int[] mKeys;
+    private int[] mKeySlots;
+    private double[] mLocalX;
+    private double[] mLocalY;
+    private int[] mLocalCounts;
+    private int[] mSlots;
+    private double[] mX;
+    private double[] mY;
+    private int[] mCounts;
+    private int mSize;
+    private int[] mSortedSlots;
+    private double[] mSortedX;
+    private double[] mSortedY;
+    private int[] mSortedCounts;
+    private int[] mOffsets;
+
+    PairAccumulator() {
+        mLocalX = new double[0];
+        mLocalY = new double[0];
+        mLocalCounts = new int[0];
+        mSlots = new int[INITIAL_CAPACITY];
+        mX = new double[INITIAL_CAPACITY];
+        mY = new double[INITIAL_CAPACITY];
+        mCounts = new int[INITIAL_CAPACITY];
+        mSortedSlots = new int[0];
+        mSortedX = new double[0];
+        mSortedY = new double[0];
+        mSortedCounts = new int[0];
+        mOffsets = new int[1];
+    }
+
+    /**
+     * Adds an effect on an entity.
+     *
+     * @param slot the slot of the entity
+     * @param x    the x component of the effect
+     * @param y    the y component of the effect
+     */
+    public void add(int slot, double x, double y) {
+        int key = mKeys == null? slot : mKeys[slot];
+        if (key >= mFrom && key < mTo) {
+            mLocalX[key - mFrom] += x;
+            mLocalY[key - mFrom] += y;
+        } else log(slot, x, y, 0);
+    }
+
+    /**
+     * Counts an effect on an entity that has no direction to add.
+     *
+     * @param slot the slot of the entity
+     */
+    public void count(int slot) {
+        int key = mKeys == null? slot : mKeys[slot];
+        if (key >= mFrom && key < mTo)
+            mLocalCounts[key - mFrom]++;
+        else log(slot, 0, 0, 1);
+    }
+
+    /**
+     * Forgets every effect.
+     *
+     * @param from     the first of the entities the chunk sums itself
+     * @param to       one past the last of them
+     * @param keys     the place of each slot in the order the range is in, or null if it is a range of slots
+     * @param keySlots the slot at each place in that order, or null if it is a range of slots
+     */
+    void reset(int from, int to, int[] keys, int[] keySlots) {
+        int size = to - from;
+        if (mLocalX.length < size) {
+            mLocalX = new double[size];
+            mLocalY = new double[size];
+            mLocalCounts = new int[size];
+        }
+        Arrays.fill(mLocalX, 0, size, 0);
+        Arrays.fill(mLocalY, 0, size, 0);
+        Arrays.fill(mLocalCounts, 0, size, 0);
+        mFrom = from;
+        mTo = to;
+        mKeys = keys;
+        mKeySlots = keySlots;
+        mSize = 0;
+    }
+
+    /**
+     * Logs the chunk's own sums, then sorts the log by bucket of slots, keeping its order within each bucket.
+     *
+     * @param bucket  the number of slots in a bucket
+     * @param buckets the number of buckets
+     */
+    void sort(int bucket, int buckets) {
+        for (int key = mFrom; key < mTo; key++)
+            log(mKeySlots == null? key : mKeySlots[key], mLocalX[key - mFrom], mLocalY[key - mFrom],
+                    mLocalCounts[key - mFrom]);
+        if (mOffsets.length < buckets + 1)
+            mOffsets = new int[buckets + 1];
+        if (mSortedSlots.length < mSize) {
+            mSortedSlots = new int[mSlots.length];
+            mSortedX = new double[mSlots.length];
+            mSortedY = new double[mSlots.length];
+            mSortedCounts = new int[mSlots.length];
+        }
+        int[] offsets = mOffsets;
+        Arrays.fill(offsets, 0, buckets + 1, 0);
+        for (int i = 0; i < mSize; i++)
+            offsets[mSlots[i] / bucket + 1]++;
+        for (int b = 0; b < buckets; b++)
+            offsets[b + 1] += offsets[b];
+        // Place each effect at the next free spot of its bucket, then shift the offsets back to the bucket starts
+        for (int i = 0; i < mSize; i++) {
+            int at = offsets[mSlots[i] / bucket]++;
+            mSortedSlots[at] = mSlots[i];
+            mSortedX[at] = mX[i];
+            mSortedY[at] = mY[i];
+            mSortedCounts[at] = mCounts[i];
+        }
+        System.arraycopy(offsets, 0, offsets, 1, buckets);
+        offsets[0] = 0;
+    }
+
+    /**
+     * Adds the effects on one bucket of slots onto running sums by slot. Only valid after {@link #sort(int, int)}.
+     */
+    void sumInto(int bucket, double[] xs, double[] ys, int[] counts) {
+        for (int i = mOffsets[bucket], end = mOffsets[bucket + 1]; i < end; i++) {
+            xs[mSortedSlots[i]] += mSortedX[i];
+            ys[mSortedSlots[i]] += mSortedY[i];
+            counts[mSortedSlots[i]] += mSortedCounts[i];
+        }
+    }
+
+    private void log(int slot, double x, double y, int count) {
+        if (mSize == mSlots.length)
+            grow();
+        mSlots[mSize] = slot;
+        mX[mSize] = x;
+        mY[mSize] = y;
+        mCounts[mSize] = count;
+        mSize++;
+    }
+
+    private void grow() {
+        int capacity = mSlots.length * 2;
+        mSlots = Arrays.copyOf(mSlots, capacity);
+        mX = Arrays.copyOf(mX, capacity);
+        mY = Arrays.copyOf(mY, capacity);
+        mCounts = Arrays.copyOf(mCounts, capacity);
+    }
+}
@@ -0,0 +1,264 @@
+package net.popsim.src.simu.force;
+
+import net.popsim.src.simu.ComponentStore;
+import net.popsim.src.simu.WorldExecutor;
+import net.popsim.src.simu.spatial.NeighborList;
+import net.popsim.src.simu.spatial.SpatialIndex;
+import net.popsim.src.simu.spatial.UniformGrid;
+import net.popsim.src.util.DoubleColumn;
+import net.popsim.src.util.IntColumn;
+
+import java.util.Arrays;
+
+/**
+ * A {@link PairKernel} run once for every unordered pair of positioned entities within a range of each other.
+ * <br>Pairs are split into chunks of a fixed size, and each chunk adds into its own {@link PairAccumulator}, so a pair
+ * can update both entities without locking. Once every pair is done the accumulators are summed by slot in chunk
+ * order. Chunks do not depend on the number of threads or on which thread took them, so neither do the sums.
+ * Pairs are found through neighbor lists if given some, else through the world's spatial index, or by looking at every
+ * pair if it has none. A {@link UniformGrid} is walked in its own order, so each pair is only searched for once and
+ * most effects land in the chunk that found them.
+ */
+public class PairInteraction {
+
+    // Slots, rows of pairs or places in the grid's order in a chunk
+    private static final int CHUNK = 1024;
+    // Slots summed together once the pairs are done
+    private static final int BUCKET = 4096;
+
+    private final double mRange;
+    private final PairKernel mKernel;
+    private final NeighborList mNeighbors;
+    private PairAccumulator[] mAccumulators;
+    private double[] mX;
+    private double[] mY;
+    private int[] mCounts;
+    // The place of each slot in the grid's order, and the slot at each place
+    private int[] mKeys;
+    private int[] mKeySlots;
+
+    /**
+     * Creates a new PairInteraction.
+     *
+     * @param range  the range within which pairs interact
+     * @param kernel the interaction
+     */
+    public PairInteraction(double range, PairKernel kernel) {
+        this(range, kernel, null);
+    }
+
+    /**
+     * Creates a new PairInteraction that finds pairs through neighbor lists, within their range.
+     *
+     * @param neighbors the neighbor lists, refreshed each tick before the update
+     * @param kernel    the interaction
+     */
+    public PairInteraction(NeighborList neighbors, PairKernel kernel) {
+        this(neighbors.getRange(), kernel, neighbors);
+    }
+
+    private PairInteraction(double range, PairKernel kernel, NeighborList neighbors) {
+        mRange = range;
+        mKernel = kernel;
+        mNeighbors = neighbors;
+        mAccumulators = new PairAccumulator[0];
+        mX = new double[0];
+        mY = new double[0];
+        mCounts = new int[0];
+        mKeys = new int[0];
+        mKeySlots = new int[0];
+    }
+
+    /**
+     * Runs the kernel on every pair and sums the results.
+     *
+     * @param components the columns to read positions and kinds from
+     * @param slots      the number of slots in use
+     * @param index      the spatial index to find pairs with if there are no neighbor lists, or null to look at every
+     *                   pair
+     * @param executor   the executor to spread the work over
+     */
+    public void evaluate(ComponentStore components, int slots, SpatialIndex index, WorldExecutor executor) {
+        DoubleColumn xs = components.getXColumn();
+        DoubleColumn ys = components.getYColumn();
+        IntColumn kinds = components.getKindColumn();
+        int chunks;
+        if (mNeighbors == null && index instanceof UniformGrid) {
+            UniformGrid grid = (UniformGrid) index;
+            int size = grid.size();
+            order(grid, slots, executor);
+            chunks = prepare(size, true);
+            executor.forRange(chunks, 1, (first, last) -> {
+                for (int chunk = first; chunk < last; chunk++) {
+                    Visitor visitor = new Visitor(mAccumulators[chunk], false);
+                    for (int i = chunk * CHUNK, to = Math.min(size, i + CHUNK); i < to; i++) {
+                        visitor.reset(grid.getSlot(i), grid.getX(i), grid.getY(i));
+                        grid.forEachLaterNeighbor(i, mRange, visitor);
+                    }
+                }
+            });
+        } else if (mNeighbors != null || index != null) {
+            chunks = prepare(slots, false);
+            executor.forRange(chunks, 1, (first, last) -> {
+                for (int chunk = first; chunk < last; chunk++) {
+                    Visitor visitor = new Visitor(mAccumulators[chunk], true);
+                    for (int a = chunk * CHUNK, to = Math.min(slots, a + CHUNK); a < to; a++) {
+                        if (kinds.get(a) == ComponentStore.NO_KIND)
+                            continue;
+                        visitor.reset(a, xs.get(a), ys.get(a));
+                        if (mNeighbors != null)
+                            mNeighbors.forEachNeighbor(components, a, visitor);
+                        else index.forEachNeighbor(visitor.mAx, visitor.mAy, mRange, visitor);
+                    }
+                }
+            });
+        } else {
+            // Row r has n - 1 - r pairs, so rows are taken from both ends together to even out the chunks
+            double range2 = mRange * mRange;
+            int rows = (slots + 1) / 2;
+            chunks = prepare(rows, false);
+            executor.forRange(chunks, 1, (first, last) -> {
+                for (int chunk = first; chunk < last; chunk++) {
+                    PairAccumulator out = mAccumulators[chunk];
+                    for (int row = chunk * CHUNK, to = Math.min(rows, row + CHUNK); row < to; row++) {
+                        pairRow(row, slots, range2, xs, ys, kinds, out);
+                        if (slots - 1 - row != row)
+                            pairRow(slots - 1 - row, slots, range2, xs, ys, kinds, out);
+                    }
+                }
+            });
+        }
+        reduce(slots, chunks, executor);
+    }
+
+    /**
+     * @param slot the slot of an entity
+     *
+     * @return The x component of the summed effect on the entity.
+     */
+    public double getX(int slot) {
+        return mX[slot];
+    }
+
+    /**
+     * @param slot the slot of an entity
+     *
+     * @return The y component of the summed effect on the entity.
+     */
+    public double getY(int slot) {
+        return mY[slot];
+    }
+
+    /**
+     * @param slot the slot of an entity
+     *
+     * @return The summed count of effects without a direction on the entity.
+     * @see PairAccumulator#count(int)
+     */
+    public int getCount(int slot) {
+        return mCounts[slot];
+    }
+
+    public double getRange() {
+        return mRange;
+    }
+
+    // Readies an empty accumulator for each chunk of a range, of slots or of places in the grid's order
+    private int prepare(int size, boolean keyed) {
+        int chunks = (size + CHUNK - 1) / CHUNK;
+        if (mAccumulators.length < chunks) {
+            int from = mAccumulators.length;
+            mAccumulators = Arrays.copyOf(mAccumulators, chunks);
+            for (int chunk = from; chunk < chunks; chunk++)
+                mAccumulators[chunk] = new PairAccumulator();
+        }
+        for (int chunk = 0; chunk < chunks; chunk++)
+            mAccumulators[chunk].reset(chunk * CHUNK, Math.min(size, chunk * CHUNK + CHUNK), keyed? mKeys : null,
+                    keyed? mKeySlots : null);
+        return chunks;
+    }
+
+    // Notes where each slot comes in the grid's order
+    private void order(UniformGrid grid, int slots, WorldExecutor executor) {
+        int size = grid.size();
+        if (mKeys.length < slots)
+            mKeys = new int[Math.max(slots, mKeys.length * 2)];
+        if (mKeySlots.length < size)
+            mKeySlots = new int[Math.max(size, mKeySlots.length * 2)];
+        executor.forRange(size, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                int slot = grid.getSlot(i);
+                mKeys[slot] = i;
+                mKeySlots[i] = slot;
+            }
+        });
+    }
+
+    private void pairRow(int a, int slots, double range2, DoubleColumn xs, DoubleColumn ys, IntColumn kinds,
+                         PairAccumulator out) {
+        if (kinds.get(a) == ComponentStore.NO_KIND)
+            return;
+        double ax = xs.get(a), ay = ys.get(a);
+        for (int b = a + 1; b < slots; b++) {
+            if (kinds.get(b) == ComponentStore.NO_KIND)
+                continue;
+            double bx = xs.get(b), by = ys.get(b);
+            double dx = bx - ax, dy = by - ay;
+            if (dx * dx + dy * dy <= range2)
+                mKernel.interact(a, ax, ay, b, bx, by, out);
+        }
+    }
+
+    private void reduce(int slots, int chunks, WorldExecutor executor) {
+        if (mX.length < slots) {
+            mX = new double[Math.max(slots, mX.length * 2)];
+            mY = new double[mX.length];
+            mCounts = new int[mX.length];
+        }
+        int buckets = (slots + BUCKET - 1) / BUCKET;
+        executor.forRange(chunks, 1, (first, last) -> {
+            for (int chunk = first; chunk < last; chunk++)
+                mAccumulators[chunk].sort(BUCKET, buckets);
+        });
+        // Each bucket is summed by one task, taking the chunks in order
+        executor.forRange(buckets, 1, (first, last) -> {
+            for (int bucket = first; bucket < last; bucket++) {
+                int from = bucket * BUCKET, to = Math.min(slots, from + BUCKET);
+                Arrays.fill(mX, from, to, 0);
+                Arrays.fill(mY, from, to, 0);
+                Arrays.fill(mCounts, from, to, 0);
+                for (int chunk = 0; chunk < chunks; chunk++)
+                    mAccumulators[chunk].sumInto(bucket, mX, mY, mCounts);
+            }
+        });
+    }
+
+    /**
+     * Runs the kernel on the neighbors of one entity. Unless the search only finds later neighbors, those in earlier
+     * slots are skipped, so each pair is seen once.
+     */
+    private class Visitor implements SpatialIndex.NeighborAction {
+
+        private final PairAccumulator mOut;
+        private final boolean mLaterSlotsOnly;
+        private int mA;
+        private double mAx, mAy;
+
+        private Visitor(PairAccumulator out, boolean laterSlotsOnly) {
+            mOut = out;
+            mLaterSlotsOnly = laterSlotsOnly;
+        }
+
+        private void reset(int a, double ax, double ay) {
+            mA = a;
+            mAx = ax;
+            mAy = ay;
+        }
+
+        @Override
+        public void accept(int slot, double x, double y) {
+            if (slot > mA || !mLaterSlotsOnly)
+                mKernel.interact(mA, mAx, mAy, slot, x, y, mOut);
+        }
+    }
+}
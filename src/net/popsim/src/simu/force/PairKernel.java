@@ -0,0 +1,20 @@
+package net.popsim.src.simu.force;
+
+/**
+ * An interaction between two entities that is worked out once for the pair, with the effect on each added to an
+ * accumulator. A symmetric force adds equal and opposite amounts to the two.
+ */
+@FunctionalInterface
+public interface PairKernel {
+
+    /**
+     * @param a   the slot of the first entity
+     * @param ax  the x coordinate of the first entity
+     * @param ay  the y coordinate of the first entity
+     * @param b   the slot of the second entity
+     * @param bx  the x coordinate of the second entity
+     * @param by  the y coordinate of the second entity
+     * @param out the accumulator to add the effects on each entity to
+     */
+    void interact(int a, double ax, double ay, int b, double bx, double by, PairAccumulator out);
+}
@@ -0,0 +1,267 @@
+package net.popsim.src.simu.spatial;
+
+import net.popsim.src.simu.ComponentStore;
+import net.popsim.src.simu.TileDecomposition;
+import net.popsim.src.simu.WorldExecutor;
+import net.popsim.src.util.DoubleColumn;
+import net.popsim.src.util.IntColumn;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cached lists of the entities near each entity, so neighbors don't have to be searched for every tick.
+ * <br>Each list holds every entity within the range plus a skin, as of the last rebuild. Until some entity has moved
+ * more than half the skin since then, no entity can have come within range without already being on the list. Lists are
+ * also rebuilt whenever entities are spawned, killed or moved between slots.
+ * <br>When the world is updated by tiles, lists are rebuilt tile by tile from each tile's own copy of the positions.
+ */
+public class NeighborList {
+
+    private final double mRange;
+    private final double mSkin;
+    private int[] mStart;
+    private int[] mNeighbors;
+    private double[] mBuiltX;
+    private double[] mBuiltY;
+    private int mSlots;
+    private long mVersion;
+    private long mTicks;
+    private long mRebuilds;
+    private final LongAdder mCandidates;
+    private final LongAdder mHits;
+
+    /**
+     * Creates a new NeighborList.
+     *
+     * @param range the range neighbors are queried within
+     * @param skin  the margin kept on top of the range
+     */
+    public NeighborList(double range, double skin) {
+        mRange = range;
+        mSkin = skin;
+        mStart = new int[1];
+        mNeighbors = new int[0];
+        mBuiltX = new double[0];
+        mBuiltY = new double[0];
+        mVersion = -1;
+        mCandidates = new LongAdder();
+        mHits = new LongAdder();
+    }
+
+    /**
+     * Rebuilds the lists if they may have gone stale. Called once per tick after the spatial index is built.
+     *
+     * @param components the columns to read positions and kinds from
+     * @param slots      the number of slots in use
+     * @param version    the version of the entity store
+     * @param index      the spatial index to search for neighbors in
+     * @param tiles      the tiles to search for neighbors in first, already assigned this tick, or null
+     * @param executor   the executor to spread a rebuild over
+     */
+    public void refresh(ComponentStore components, int slots, long version, SpatialIndex index,
+                        TileDecomposition tiles, WorldExecutor executor) {
+        mTicks++;
+        if (version == mVersion && slots == mSlots && maxDisplacement(components) <= mSkin / 2)
+            return;
+        mRebuilds++;
+        if (tiles != null)
+            rebuild(components, slots, index, tiles, executor);
+        else rebuild(components, slots, index, executor);
+        mVersion = version;
+    }
+
+    /**
+     * Calls an action for every entity within range of an entity, not including itself, with its current position.
+     * Does not allocate.
+     *
+     * @param components the columns to read current positions from
+     * @param slot       the slot of the entity
+     * @param action     the action to call
+     */
+    public void forEachNeighbor(ComponentStore components, int slot, SpatialIndex.NeighborAction action) {
+        if (slot >= mSlots)
+            return;
+        DoubleColumn xs = components.getXColumn();
+        DoubleColumn ys = components.getYColumn();
+        double x = xs.get(slot), y = ys.get(slot);
+        double range2 = mRange * mRange;
+        int hits = 0;
+        int from = mStart[slot], to = mStart[slot + 1];
+        for (int i = from; i < to; i++) {
+            int neighbor = mNeighbors[i];
+            double nx = xs.get(neighbor), ny = ys.get(neighbor);
+            double dx = nx - x, dy = ny - y;
+            if (dx * dx + dy * dy <= range2) {
+                hits++;
+                action.accept(neighbor, nx, ny);
+            }
+        }
+        mCandidates.add(to - from);
+        mHits.add(hits);
+    }
+
+    public double getRange() {
+        return mRange;
+    }
+
+    public double getSkin() {
+        return mSkin;
+    }
+
+    /**
+     * @return The number of ticks the lists have been refreshed for.
+     */
+    public long getTicks() {
+        return mTicks;
+    }
+
+    /**
+     * @return The number of those ticks the lists were rebuilt on.
+     */
+    public long getRebuilds() {
+        return mRebuilds;
+    }
+
+    /**
+     * @return The fraction of ticks served from the cached lists without a rebuild.
+     */
+    public double getReuseRate() {
+        return mTicks == 0? 0 : 1 - mRebuilds / (double) mTicks;
+    }
+
+    /**
+     * @return The fraction of listed neighbors that turned out to be within range when queried. A low rate means the
+     * skin is too thick.
+     */
+    public double getHitRate() {
+        long candidates = mCandidates.sum();
+        return candidates == 0? 0 : mHits.sum() / (double) candidates;
+    }
+
+    private double maxDisplacement(ComponentStore components) {
+        DoubleColumn xs = components.getXColumn();
+        DoubleColumn ys = components.getYColumn();
+        double max2 = 0;
+        for (int slot = 0; slot < mSlots; slot++) {
+            double dx = xs.get(slot) - mBuiltX[slot];
+            double dy = ys.get(slot) - mBuiltY[slot];
+            max2 = Math.max(max2, dx * dx + dy * dy);
+        }
+        return Math.sqrt(max2);
+    }
+
+    private void rebuild(ComponentStore components, int slots, SpatialIndex index, WorldExecutor executor) {
+        DoubleColumn xs = components.getXColumn();
+        DoubleColumn ys = components.getYColumn();
+        IntColumn kinds = components.getKindColumn();
+        if (mStart.length < slots + 1) {
+            mStart = new int[Math.max(slots + 1, mStart.length * 2)];
+            mBuiltX = new double[mStart.length];
+            mBuiltY = new double[mStart.length];
+        }
+        mSlots = slots;
+        double radius = mRange + mSkin;
+        // Count each list, then lay them out one after the other, then fill them in
+        executor.forRange(slots, (from, to) -> {
+            Collector counter = new Collector(null);
+            for (int slot = from; slot < to; slot++) {
+                double x = mBuiltX[slot] = xs.get(slot);
+                double y = mBuiltY[slot] = ys.get(slot);
+                counter.reset(slot, 0);
+                if (kinds.get(slot) != ComponentStore.NO_KIND)
+                    index.forEachNeighbor(x, y, radius, counter);
+                mStart[slot + 1] = counter.mCursor;
+            }
+        });
+        mStart[0] = 0;
+        for (int slot = 0; slot < slots; slot++)
+            mStart[slot + 1] += mStart[slot];
+        if (mNeighbors.length < mStart[slots])
+            mNeighbors = new int[Math.max(mStart[slots], mNeighbors.length * 2)];
+        executor.forRange(slots, (from, to) -> {
+            Collector filler = new Collector(mNeighbors);
+            for (int slot = from; slot < to; slot++) {
+                filler.reset(slot, mStart[slot]);
+                if (kinds.get(slot) != ComponentStore.NO_KIND)
+                    index.forEachNeighbor(mBuiltX[slot], mBuiltY[slot], radius, filler);
+            }
+        });
+    }
+
+    private void rebuild(ComponentStore components, int slots, SpatialIndex index, TileDecomposition tiles,
+                         WorldExecutor executor) {
+        DoubleColumn xs = components.getXColumn();
+        DoubleColumn ys = components.getYColumn();
+        if (mStart.length < slots + 1) {
+            mStart = new int[Math.max(slots + 1, mStart.length * 2)];
+            mBuiltX = new double[mStart.length];
+            mBuiltY = new double[mStart.length];
+        }
+        mSlots = slots;
+        double radius = mRange + mSkin;
+        // Entities without a position belong to no tile and get empty lists
+        executor.forRange(slots, (from, to) -> {
+            for (int slot = from; slot < to; slot++) {
+                mBuiltX[slot] = xs.get(slot);
+                mBuiltY[slot] = ys.get(slot);
+                mStart[slot + 1] = 0;
+            }
+        });
+        executor.forRange(tiles.getTileCount(), 1, (from, to) -> {
+            Collector counter = new Collector(null);
+            for (int t = from; t < to; t++) {
+                TileDecomposition.Tile tile = tiles.getTile(t);
+                for (int i = 0; i < tile.getOwnedCount(); i++) {
+                    int slot = tile.getOwnedSlot(i);
+                    counter.reset(slot, 0);
+                    tiles.forEachNeighbor(tile, mBuiltX[slot], mBuiltY[slot], radius, index, counter);
+                    mStart[slot + 1] = counter.mCursor;
+                }
+            }
+        });
+        mStart[0] = 0;
+        for (int slot = 0; slot < slots; slot++)
+            mStart[slot + 1] += mStart[slot];
+        if (mNeighbors.length < mStart[slots])
+            mNeighbors = new int[Math.max(mStart[slots], mNeighbors.length * 2)];
+        executor.forRange(tiles.getTileCount(), 1, (from, to) -> {
+            Collector filler = new Collector(mNeighbors);
+            for (int t = from; t < to; t++) {
+                TileDecomposition.Tile tile = tiles.getTile(t);
+                for (int i = 0; i < tile.getOwnedCount(); i++) {
+                    int slot = tile.getOwnedSlot(i);
+                    filler.reset(slot, mStart[slot]);
+                    tiles.forEachNeighbor(tile, mBuiltX[slot], mBuiltY[slot], radius, index, filler);
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts the neighbors of an entity, or writes them out if given somewhere to.
+     */
+    private static class Collector implements SpatialIndex.NeighborAction {
+
+        private final int[] mOut;
+        private int mSelf;
+        private int mCursor;
+
+        private Collector(int[] out) {
+            mOut = out;
+        }
+
+        private void reset(int self, int cursor) {
+            mSelf = self;
+            mCursor = cursor;
+        }
+
+        @Override
+        public void accept(int slot, double x, double y) {
+            if (slot == mSelf)
+                return;
+            if (mOut != null)
+                mOut[mCursor] = slot;
+            mCursor++;
+        }
+    }
+}
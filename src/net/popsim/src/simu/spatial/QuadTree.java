@@ -0,0 +1,352 @@
+package net.popsim.src.simu.spatial;
+
+import net.popsim.src.simu.ComponentStore;
+import net.popsim.src.simu.WorldExecutor;
+import net.popsim.src.util.DoubleColumn;
+import net.popsim.src.util.IntColumn;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * A spatial index that splits space wherever the entities are, so it stays shallow in empty areas and deep in dense
+ * ones.
+ * <br>Each node splits at the middle of the tight box around its entities, and a node whose entities all sit on one
+ * point is a leaf however many there are. Entities are sorted so every node's are one contiguous run. Large subtrees are
+ * built in parallel.
+ * <br>Nodes also know the centroid of their entities, and can be walked directly, for algorithms like Barnes-Hut that
+ * treat a far away group of entities as one.
+ */
+public class QuadTree implements SpatialIndex {
+
+    /**
+     * Deepest a node can be, in case entities are too close together for their box to split.
+     */
+    private static final int MAX_DEPTH = 48;
+    /**
+     * Entities below which a subtree is built on the current thread.
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private final int mLeafSize;
+    private int[] mSlots;
+    private double[] mXs;
+    private double[] mYs;
+    private int mSize;
+    private Node mRoot;
+
+    /**
+     * Creates a new QuadTree.
+     *
+     * @param leafSize the most entities a leaf holds before it splits
+     */
+    public QuadTree(int leafSize) {
+        mLeafSize = leafSize;
+        mSlots = new int[0];
+        mXs = new double[0];
+        mYs = new double[0];
+    }
+
+    @Override
+    public void build(ComponentStore components, int size, WorldExecutor executor) {
+        DoubleColumn xs = components.getXColumn();
+        DoubleColumn ys = components.getYColumn();
+        IntColumn kinds = components.getKindColumn();
+        ensureCapacity(size);
+        int count = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (kinds.get(slot) == ComponentStore.NO_KIND)
+                continue;
+            mSlots[count] = slot;
+            mXs[count] = xs.get(slot);
+            mYs[count] = ys.get(slot);
+            count++;
+        }
+        build(count, executor);
+    }
+
+    /**
+     * Rebuilds the tree from positions already gathered into arrays. The arrays are copied, not kept.
+     *
+     * @param slots    the slots of the entities
+     * @param xs       the x coordinates of the entities
+     * @param ys       the y coordinates of the entities
+     * @param count    the number of entities
+     * @param executor the executor to spread the build over
+     */
+    public void build(int[] slots, double[] xs, double[] ys, int count, WorldExecutor executor) {
+        ensureCapacity(count);
+        System.arraycopy(slots, 0, mSlots, 0, count);
+        System.arraycopy(xs, 0, mXs, 0, count);
+        System.arraycopy(ys, 0, mYs, 0, count);
+        build(count, executor);
+    }
+
+    private void build(int count, WorldExecutor executor) {
+        mSize = count;
+        if (count == 0)
+            mRoot = null;
+        else if (count < PARALLEL_THRESHOLD)
+            mRoot = new BuildTask(0, count, 0).compute();
+        else mRoot = executor.invoke(new BuildTask(0, count, 0));
+    }
+
+    @Override
+    public void forEachNeighbor(double x, double y, double radius, NeighborAction action) {
+        if (mRoot != null)
+            forEachNeighbor(mRoot, x, y, radius, radius * radius, action);
+    }
+
+    private void forEachNeighbor(Node node, double x, double y, double radius, double radius2, NeighborAction action) {
+        // Distance from the point to the node's box, zero on an axis where the point is inside it
+        double dx = x < node.mMinX? node.mMinX - x : x > node.mMaxX? x - node.mMaxX : 0;
+        double dy = y < node.mMinY? node.mMinY - y : y > node.mMaxY? y - node.mMaxY : 0;
+        if (dx * dx + dy * dy > radius2)
+            return;
+        if (node.mChildren == null) {
+            for (int i = node.mFrom; i < node.mTo; i++) {
+                double ex = mXs[i] - x;
+                double ey = mYs[i] - y;
+                if (ex * ex + ey * ey <= radius2)
+                    action.accept(mSlots[i], mXs[i], mYs[i]);
+            }
+            return;
+        }
+        for (Node child : node.mChildren)
+            if (child != null)
+                forEachNeighbor(child, x, y, radius, radius2, action);
+    }
+
+    @Override
+    public void forEachInRect(double minX, double minY, double maxX, double maxY, NeighborAction action) {
+        if (mRoot != null)
+            forEachInRect(mRoot, minX, minY, maxX, maxY, action);
+    }
+
+    private void forEachInRect(Node node, double minX, double minY, double maxX, double maxY, NeighborAction action) {
+        if (node.mMaxX < minX || node.mMinX > maxX || node.mMaxY < minY || node.mMinY > maxY)
+            return;
+        boolean inside = node.mMinX >= minX && node.mMaxX <= maxX && node.mMinY >= minY && node.mMaxY <= maxY;
+        if (inside || node.mChildren == null) {
+            for (int i = node.mFrom; i < node.mTo; i++) {
+                double x = mXs[i], y = mYs[i];
+                if (inside || x >= minX && x <= maxX && y >= minY && y <= maxY)
+                    action.accept(mSlots[i], x, y);
+            }
+            return;
+        }
+        for (Node child : node.mChildren)
+            if (child != null)
+                forEachInRect(child, minX, minY, maxX, maxY, action);
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return The root of the tree, or null if it is empty.
+     */
+    public Node getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * @param i the index of an entity in the tree's order, in which every node's entities are contiguous
+     *
+     * @return The slot of the entity.
+     */
+    public int getSlot(int i) {
+        return mSlots[i];
+    }
+
+    public double getX(int i) {
+        return mXs[i];
+    }
+
+    public double getY(int i) {
+        return mYs[i];
+    }
+
+    private void ensureCapacity(int size) {
+        if (mSlots.length < size) {
+            int capacity = Math.max(size, mSlots.length * 2);
+            mSlots = new int[capacity];
+            mXs = new double[capacity];
+            mYs = new double[capacity];
+        }
+    }
+
+    /**
+     * Moves the entities in [from, to) that come before a split to the front of the range.
+     *
+     * @return The index of the first entity not before the split.
+     */
+    private int partition(int from, int to, double split, boolean onX) {
+        double[] keys = onX? mXs : mYs;
+        int i = from, j = to - 1;
+        while (i <= j) {
+            if (keys[i] < split)
+                i++;
+            else swap(i, j--);
+        }
+        return i;
+    }
+
+    private void swap(int i, int j) {
+        int slot = mSlots[i];
+        mSlots[i] = mSlots[j];
+        mSlots[j] = slot;
+        double x = mXs[i];
+        mXs[i] = mXs[j];
+        mXs[j] = x;
+        double y = mYs[i];
+        mYs[i] = mYs[j];
+        mYs[j] = y;
+    }
+
+    /**
+     * A box of the tree, holding the entities in a run of the tree's order.
+     */
+    public static final class Node {
+
+        private final int mFrom, mTo;
+        private final double mMinX, mMinY, mMaxX, mMaxY;
+        private final double mCenterX, mCenterY, mExtent;
+        private Node[] mChildren;
+
+        private Node(int from, int to, double minX, double minY, double maxX, double maxY, double centerX,
+                     double centerY) {
+            mFrom = from;
+            mTo = to;
+            mMinX = minX;
+            mMinY = minY;
+            mMaxX = maxX;
+            mMaxY = maxY;
+            mCenterX = centerX;
+            mCenterY = centerY;
+            mExtent = Math.max(maxX - minX, maxY - minY);
+        }
+
+        /**
+         * @return The index of the node's first entity in the tree's order.
+         */
+        public int getFrom() {
+            return mFrom;
+        }
+
+        /**
+         * @return The index after the node's last entity in the tree's order.
+         */
+        public int getTo() {
+            return mTo;
+        }
+
+        public int size() {
+            return mTo - mFrom;
+        }
+
+        public double getMinX() {
+            return mMinX;
+        }
+
+        public double getMinY() {
+            return mMinY;
+        }
+
+        public double getMaxX() {
+            return mMaxX;
+        }
+
+        public double getMaxY() {
+            return mMaxY;
+        }
+
+        /**
+         * @return The mean x coordinate of the node's entities.
+         */
+        public double getCenterX() {
+            return mCenterX;
+        }
+
+        /**
+         * @return The mean y coordinate of the node's entities.
+         */
+        public double getCenterY() {
+            return mCenterY;
+        }
+
+        /**
+         * @return The length of the longer side of the node's box.
+         */
+        public double getExtent() {
+            return mExtent;
+        }
+
+        public boolean isLeaf() {
+            return mChildren == null;
+        }
+
+        /**
+         * @param quadrant the quadrant, from 0 to 3
+         *
+         * @return The child in the quadrant, or null if the node is a leaf or has no entities there.
+         */
+        public Node getChild(int quadrant) {
+            return mChildren == null? null : mChildren[quadrant];
+        }
+    }
+
+    private class BuildTask extends RecursiveTask<Node> {
+
+        private final int mFrom, mTo, mDepth;
+
+        private BuildTask(int from, int to, int depth) {
+            mFrom = from;
+            mTo = to;
+            mDepth = depth;
+        }
+
+        @Override
+        protected Node compute() {
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            double sumX = 0, sumY = 0;
+            for (int i = mFrom; i < mTo; i++) {
+                minX = Math.min(minX, mXs[i]);
+                maxX = Math.max(maxX, mXs[i]);
+                minY = Math.min(minY, mYs[i]);
+                maxY = Math.max(maxY, mYs[i]);
+                sumX += mXs[i];
+                sumY += mYs[i];
+            }
+            int count = mTo - mFrom;
+            Node node = new Node(mFrom, mTo, minX, minY, maxX, maxY, sumX / count, sumY / count);
+            if (mTo - mFrom <= mLeafSize || mDepth >= MAX_DEPTH || (minX == maxX && minY == maxY))
+                return node;
+            double splitX = (minX + maxX) / 2, splitY = (minY + maxY) / 2;
+            int middle = partition(mFrom, mTo, splitY, false);
+            int[] bounds = {mFrom, partition(mFrom, middle, splitX, true), middle, partition(middle, mTo, splitX, true),
+                    mTo};
+            BuildTask[] tasks = new BuildTask[4];
+            for (int q = 0; q < 4; q++)
+                if (bounds[q + 1] > bounds[q])
+                    tasks[q] = new BuildTask(bounds[q], bounds[q + 1], mDepth + 1);
+            node.mChildren = new Node[4];
+            if (mTo - mFrom >= PARALLEL_THRESHOLD) {
+                // The quadrants are disjoint runs of the arrays, so they can be sorted at the same time
+                for (BuildTask task : tasks)
+                    if (task != null)
+                        task.fork();
+                for (int q = 3; q >= 0; q--)
+                    if (tasks[q] != null)
+                        node.mChildren[q] = tasks[q].join();
+            } else {
+                for (int q = 0; q < 4; q++)
+                    if (tasks[q] != null)
+                        node.mChildren[q] = tasks[q].compute();
+            }
+            return node;
+        }
+    }
+}
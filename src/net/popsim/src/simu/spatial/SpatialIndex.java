@@ -0,0 +1,83 @@
+package net.popsim.src.simu.spatial;
+
+import net.popsim.src.simu.ComponentStore;
+import net.popsim.src.simu.WorldExecutor;
+
+/**
+ * An index over the positions in a {@link ComponentStore}, for finding the entities near a point without looking at
+ * all of them. Only slots with a kind are indexed.
+ * <br>An index is rebuilt once per tick, before the update, and can then be queried from any number of threads.
+ */
+public interface SpatialIndex {
+
+    /**
+     * The kinds of index a world can be configured with.
+     */
+    enum Type {
+        NONE("None"),
+        GRID("Grid"),
+        QUADTREE("Quadtree");
+
+        private final String mName;
+
+        Type(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public static Type fromName(String name) {
+            for (Type type : values())
+                if (type.mName.equalsIgnoreCase(name))
+                    return type;
+            throw new IllegalArgumentException("Unknown spatial index: " + name);
+        }
+    }
+
+    /**
+     * Called for each entity found by a query, with its position at the time the index was built.
+     */
+    @FunctionalInterface
+    interface NeighborAction {
+
+        void accept(int slot, double x, double y);
+    }
+
+    /**
+     * Rebuilds the index from the current positions.
+     *
+     * @param components the columns to read positions and kinds from
+     * @param size       the number of slots in use
+     * @param executor   the executor to spread the build over, for indices that can
+     */
+    void build(ComponentStore components, int size, WorldExecutor executor);
+
+    /**
+     * Calls an action for every indexed entity within a radius of a point, including one right on the point.
+     * Does not allocate.
+     *
+     * @param x      the x coordinate of the point
+     * @param y      the y coordinate of the point
+     * @param radius the radius to search within
+     * @param action the action to call
+     */
+    void forEachNeighbor(double x, double y, double radius, NeighborAction action);
+
+    /**
+     * Calls an action for every indexed entity inside a rectangle, edges included. Does not allocate.
+     *
+     * @param minX the left edge of the rectangle
+     * @param minY the top edge of the rectangle
+     * @param maxX the right edge of the rectangle
+     * @param maxY the bottom edge of the rectangle
+     * @param action the action to call
+     */
+    void forEachInRect(double minX, double minY, double maxX, double maxY, NeighborAction action);
+
+    /**
+     * @return The number of entities in the index.
+     */
+    int size();
+}
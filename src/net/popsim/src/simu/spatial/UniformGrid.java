@@ -0,0 +1,273 @@
+package net.popsim.src.simu.spatial;
+
+import net.popsim.src.simu.ComponentStore;
+import net.popsim.src.simu.WorldExecutor;
+import net.popsim.src.util.DoubleColumn;
+import net.popsim.src.util.IntColumn;
+
+import java.util.Arrays;
+
+/**
+ * A spatial index that buckets entities into square cells covering the world.
+ * <br>Entities are sorted by cell, with their positions copied alongside, so a query reads each cell as one contiguous
+ * run. Entities outside the world are kept in the nearest edge cell.
+ */
+public class UniformGrid implements SpatialIndex {
+
+    /**
+     * Called with a contiguous run of indexed entities, for handing straight to a
+     * {@link net.popsim.src.util.BatchKernel}.
+     */
+    @FunctionalInterface
+    public interface RunAction {
+
+        /**
+         * @param slots the slots of the entities
+         * @param xs    the x coordinates of the entities
+         * @param ys    the y coordinates of the entities
+         * @param from  the first entity of the run
+         * @param to    one past the last entity of the run
+         */
+        void accept(int[] slots, double[] xs, double[] ys, int from, int to);
+    }
+
+    private final double mMinX;
+    private final double mMinY;
+    private final double mCellSize;
+    private final int mColumns;
+    private final int mRows;
+    private final int[] mCellStart;
+    private final int[] mCursor;
+    private int[] mCellOf;
+    private int[] mSlots;
+    private double[] mXs;
+    private double[] mYs;
+    private int mSize;
+
+    /**
+     * Creates a new UniformGrid.
+     *
+     * @param width    the width of the world
+     * @param height   the height of the world
+     * @param cellSize the length of a side of a cell
+     */
+    public UniformGrid(double width, double height, double cellSize) {
+        this(0, 0, width, height, cellSize);
+    }
+
+    /**
+     * Creates a new UniformGrid covering part of the world.
+     *
+     * @param minX     the left edge of the area covered
+     * @param minY     the top edge of the area covered
+     * @param width    the width of the area covered
+     * @param height   the height of the area covered
+     * @param cellSize the length of a side of a cell
+     */
+    public UniformGrid(double minX, double minY, double width, double height, double cellSize) {
+        mMinX = minX;
+        mMinY = minY;
+        mCellSize = cellSize;
+        mColumns = Math.max(1, (int) Math.ceil(width / cellSize));
+        mRows = Math.max(1, (int) Math.ceil(height / cellSize));
+        mCellStart = new int[mColumns * mRows + 1];
+        mCursor = new int[mColumns * mRows];
+        mCellOf = new int[0];
+        mSlots = new int[0];
+        mXs = new double[0];
+        mYs = new double[0];
+    }
+
+    @Override
+    public void build(ComponentStore components, int size, WorldExecutor executor) {
+        DoubleColumn xs = components.getXColumn();
+        DoubleColumn ys = components.getYColumn();
+        IntColumn kinds = components.getKindColumn();
+        if (mCellOf.length < size) {
+            int capacity = Math.max(size, mCellOf.length * 2);
+            mCellOf = new int[capacity];
+            mSlots = new int[capacity];
+            mXs = new double[capacity];
+            mYs = new double[capacity];
+        }
+        // Counting sort by cell: count, then prefix sum into starts, then scatter
+        Arrays.fill(mCellStart, 0);
+        for (int slot = 0; slot < size; slot++) {
+            if (kinds.get(slot) == ComponentStore.NO_KIND) {
+                mCellOf[slot] = -1;
+                continue;
+            }
+            int cell = cellOf(xs.get(slot), ys.get(slot));
+            mCellOf[slot] = cell;
+            mCellStart[cell + 1]++;
+        }
+        for (int cell = 0; cell < mCursor.length; cell++)
+            mCellStart[cell + 1] += mCellStart[cell];
+        System.arraycopy(mCellStart, 0, mCursor, 0, mCursor.length);
+        for (int slot = 0; slot < size; slot++) {
+            int cell = mCellOf[slot];
+            if (cell < 0)
+                continue;
+            int i = mCursor[cell]++;
+            mSlots[i] = slot;
+            mXs[i] = xs.get(slot);
+            mYs[i] = ys.get(slot);
+        }
+        mSize = mCellStart[mCursor.length];
+    }
+
+    /**
+     * Rebuilds the index from positions already gathered into arrays.
+     *
+     * @param slots the slots of the entities
+     * @param xs    the x coordinates of the entities
+     * @param ys    the y coordinates of the entities
+     * @param count the number of entities
+     */
+    public void build(int[] slots, double[] xs, double[] ys, int count) {
+        if (mCellOf.length < count) {
+            int capacity = Math.max(count, mCellOf.length * 2);
+            mCellOf = new int[capacity];
+            mSlots = new int[capacity];
+            mXs = new double[capacity];
+            mYs = new double[capacity];
+        }
+        Arrays.fill(mCellStart, 0);
+        for (int i = 0; i < count; i++) {
+            int cell = cellOf(xs[i], ys[i]);
+            mCellOf[i] = cell;
+            mCellStart[cell + 1]++;
+        }
+        for (int cell = 0; cell < mCursor.length; cell++)
+            mCellStart[cell + 1] += mCellStart[cell];
+        System.arraycopy(mCellStart, 0, mCursor, 0, mCursor.length);
+        for (int i = 0; i < count; i++) {
+            int j = mCursor[mCellOf[i]]++;
+            mSlots[j] = slots[i];
+            mXs[j] = xs[i];
+            mYs[j] = ys[i];
+        }
+        mSize = count;
+    }
+
+    @Override
+    public void forEachNeighbor(double x, double y, double radius, NeighborAction action) {
+        double radius2 = radius * radius;
+        int minColumn = column(x - radius), maxColumn = column(x + radius);
+        int minRow = row(y - radius), maxRow = row(y + radius);
+        for (int row = minRow; row <= maxRow; row++) {
+            // Cells in a row are adjacent, so the whole span is one run
+            int from = mCellStart[row * mColumns + minColumn];
+            int to = mCellStart[row * mColumns + maxColumn + 1];
+            for (int i = from; i < to; i++) {
+                double dx = mXs[i] - x;
+                double dy = mYs[i] - y;
+                if (dx * dx + dy * dy <= radius2)
+                    action.accept(mSlots[i], mXs[i], mYs[i]);
+            }
+        }
+    }
+
+    /**
+     * Calls an action for every indexed entity within a radius of another that comes after it in the grid's order.
+     * Called for every entity in turn, this finds each pair within the radius once, and only searches the cells from
+     * the entity's own row down.
+     *
+     * @param i      the index of an entity in the grid's order, in which every cell's entities are contiguous
+     * @param radius the radius to search within
+     * @param action the action to call
+     */
+    public void forEachLaterNeighbor(int i, double radius, NeighborAction action) {
+        double x = mXs[i], y = mYs[i];
+        double radius2 = radius * radius;
+        int minColumn = column(x - radius), maxColumn = column(x + radius);
+        int ownRow = row(y), maxRow = row(y + radius);
+        for (int row = ownRow; row <= maxRow; row++) {
+            // Cells are in row order, so only the part of the entity's own row after it is later
+            int from = row == ownRow? i + 1 : mCellStart[row * mColumns + minColumn];
+            int to = mCellStart[row * mColumns + maxColumn + 1];
+            for (int j = from; j < to; j++) {
+                double dx = mXs[j] - x;
+                double dy = mYs[j] - y;
+                if (dx * dx + dy * dy <= radius2)
+                    action.accept(mSlots[j], mXs[j], mYs[j]);
+            }
+        }
+    }
+
+    /**
+     * Calls an action for each run of entities in the cells a circle touches. Unlike
+     * {@link #forEachNeighbor(double, double, double, NeighborAction)}, the runs aren't filtered by distance, and include
+     * an entity at the center. The arrays are the grid's own and must not be changed.
+     *
+     * @param x      the x coordinate of the center
+     * @param y      the y coordinate of the center
+     * @param radius the radius of the circle
+     * @param action the action to call
+     */
+    public void forEachRun(double x, double y, double radius, RunAction action) {
+        int minColumn = column(x - radius), maxColumn = column(x + radius);
+        int minRow = row(y - radius), maxRow = row(y + radius);
+        for (int row = minRow; row <= maxRow; row++) {
+            int from = mCellStart[row * mColumns + minColumn];
+            int to = mCellStart[row * mColumns + maxColumn + 1];
+            if (to > from)
+                action.accept(mSlots, mXs, mYs, from, to);
+        }
+    }
+
+    @Override
+    public void forEachInRect(double minX, double minY, double maxX, double maxY, NeighborAction action) {
+        int minColumn = column(minX), maxColumn = column(maxX);
+        int minRow = row(minY), maxRow = row(maxY);
+        for (int row = minRow; row <= maxRow; row++) {
+            int from = mCellStart[row * mColumns + minColumn];
+            int to = mCellStart[row * mColumns + maxColumn + 1];
+            for (int i = from; i < to; i++) {
+                double x = mXs[i], y = mYs[i];
+                if (x >= minX && x <= maxX && y >= minY && y <= maxY)
+                    action.accept(mSlots[i], x, y);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @param i the index of an entity in the grid's order, in which every cell's entities are contiguous
+     *
+     * @return The slot of the entity.
+     */
+    public int getSlot(int i) {
+        return mSlots[i];
+    }
+
+    public double getX(int i) {
+        return mXs[i];
+    }
+
+    public double getY(int i) {
+        return mYs[i];
+    }
+
+    public double getCellSize() {
+        return mCellSize;
+    }
+
+    private int cellOf(double x, double y) {
+        return row(y) * mColumns + column(x);
+    }
+
+    private int column(double x) {
+        int column = (int) Math.floor((x - mMinX) / mCellSize);
+        return column < 0? 0 : column >= mColumns? mColumns - 1 : column;
+    }
+
+    private int row(double y) {
+        int row = (int) Math.floor((y - mMinY) / mCellSize);
+        return row < 0? 0 : row >= mRows? mRows - 1 : row;
+    }
+}
@@ -0,0 +1,25 @@
+package net.popsim.src.util;
+
+/**
+ * Sums the effect of a run of points on one point, with the points' coordinates in plain arrays.
+ *
+ * @see BatchKernels
+ */
+@FunctionalInterface
+public interface BatchKernel {
+
+    /**
+     * Adds the effect of the points in [from, to) on a point to a sum.
+     *
+     * @param x    the x coordinate of the point acted on
+     * @param y    the y coordinate of the point acted on
+     * @param xs   the x coordinates of the acting points
+     * @param ys   the y coordinates of the acting points
+     * @param from the first acting point
+     * @param to   one past the last acting point
+     * @param out  the sum to add to, as x then y
+     *
+     * @return The number of acting points right on the point acted on, which the kernel skipped.
+     */
+    int apply(double x, double y, double[] xs, double[] ys, int from, int to, double[] out);
+}
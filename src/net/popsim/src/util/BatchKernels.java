@@ -0,0 +1,80 @@
+package net.popsim.src.util;
+
+/**
+ * Built-in {@link BatchKernel}s, written as straight loops over arrays with no calls or objects in them, so the JIT
+ * can keep everything in registers and unroll them.
+ */
+public final class BatchKernels {
+
+    private BatchKernels() {
+    }
+
+    /**
+     * @param range the distance past which points don't push
+     *
+     * @return A kernel for inverse distance repulsion.
+     * @see #repel(double, double, double[], double[], int, int, double, double[])
+     */
+    public static BatchKernel repulsion(double range) {
+        double range2 = range * range;
+        return (x, y, xs, ys, from, to, out) -> repel(x, y, xs, ys, from, to, range2, out);
+    }
+
+    /**
+     * Adds the push on a point from every point within range, each pushing with <tt>d / |d|&sup2;</tt> along the
+     * displacement <tt>d</tt> from it.
+     *
+     * @param x      the x coordinate of the point pushed
+     * @param y      the y coordinate of the point pushed
+     * @param xs     the x coordinates of the pushing points
+     * @param ys     the y coordinates of the pushing points
+     * @param from   the first pushing point
+     * @param to     one past the last pushing point
+     * @param range2 the square of the distance past which points don't push
+     * @param out    the sum to add to, as x then y
+     *
+     * @return The number of pushing points right on the point pushed, which don't push.
+     */
+    public static int repel(double x, double y, double[] xs, double[] ys, int from, int to, double range2, double[] out) {
+        double px = 0, py = 0;
+        int coincident = 0;
+        for (int i = from; i < to; i++) {
+            double dx = x - xs[i];
+            double dy = y - ys[i];
+            double mag2 = dx * dx + dy * dy;
+            // Branching beats a branch-free select here: most pairs are out of range and skip the division
+            if (mag2 <= range2) {
+                if (mag2 == 0)
+                    coincident++;
+                else {
+                    double inverse = 1 / mag2;
+                    px += dx * inverse;
+                    py += dy * inverse;
+                }
+            }
+        }
+        out[0] += px;
+        out[1] += py;
+        return coincident;
+    }
+
+    /**
+     * Works out the repulsion on every point from every other, one row at a time.
+     *
+     * @param xs     the x coordinates of the points
+     * @param ys     the y coordinates of the points
+     * @param count  the number of points
+     * @param range2 the square of the distance past which points don't push
+     * @param outX   where to write the x component of each push
+     * @param outY   where to write the y component of each push
+     */
+    public static void repelAll(double[] xs, double[] ys, int count, double range2, double[] outX, double[] outY) {
+        double[] sum = new double[2];
+        for (int i = 0; i < count; i++) {
+            sum[0] = sum[1] = 0;
+            repel(xs[i], ys[i], xs, ys, 0, count, range2, sum);
+            outX[i] = sum[0];
+            outY[i] = sum[1];
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package net.popsim.src.util;
+
+import javafx.scene.paint.Color;
+
+public class Colors {
+
+    /**
+     * Packs a color into a single int.
+     *
+     * @param color the color to pack
+     *
+     * @return The color as 8-bit alpha, red, green and blue channels, from the most significant byte down.
+     */
+    public static int toArgb(Color color) {
+        return (int) Math.round(color.getOpacity() * 255) << 24
+                | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8
+                | (int) Math.round(color.getBlue() * 255);
+    }
+}
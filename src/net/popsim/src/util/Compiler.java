@@ -10,6 +10,10 @@ public class Compiler {
 
     private static JavaCompiler COMPILER;
     private static File DIR_OUTPUT;
+    /**
+     * Names of classes compiled so far. A class can only be loaded once, so there is no point compiling it again.
+     */
+    private static final Set<String> COMPILED = new HashSet<>();
 
     public static Stack<File> stackSubFiles(File parent, Stack<File> results) {
         File[] contents = parent.listFiles();
@@ -39,7 +43,11 @@ public class Compiler {
         compile(Arrays.asList(sources));
     }
 
-    public static void compile(List<FileSource> sources) throws Exception {
+    public static synchronized void compile(List<FileSource> sources) throws Exception {
+        sources = new ArrayList<>(sources);
+        sources.removeIf(src -> COMPILED.contains(src.getClassName()));
+        if (sources.isEmpty())
+            return;
         // Prepare each file for compilation
         Stack<File> original;
         stackSubFiles(DIR_OUTPUT, original = new Stack<>());
@@ -70,6 +78,8 @@ public class Compiler {
         StringWriter out = new StringWriter();
         if (!COMPILER.getTask(out, null, null, args, null, sources).call())
             throw new Exception(String.format("Unable to compile classes: %s\n%s", sources, out.toString().trim()));
+        for (FileSource f : sources)
+            COMPILED.add(f.getClassName());
         // Calculate diff
         Stack<File> diff;
         (diff = stackSubFiles(DIR_OUTPUT, new Stack<>())).removeAll(original);
@@ -0,0 +1,119 @@
+package net.popsim.src.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable column of doubles, kept either in a Java array or in native memory outside the garbage collected heap.
+ */
+public abstract class DoubleColumn {
+
+    /**
+     * @param capacity the initial capacity
+     *
+     * @return A column backed by a double array.
+     */
+    public static DoubleColumn heap(int capacity) {
+        return new Heap(capacity);
+    }
+
+    /**
+     * Native memory is limited by <tt>-XX:MaxDirectMemorySize</tt> rather than the heap size.
+     *
+     * @param capacity the initial capacity
+     *
+     * @return A column backed by a direct buffer.
+     */
+    public static DoubleColumn direct(int capacity) {
+        return new Direct(capacity);
+    }
+
+    public abstract double get(int index);
+
+    public abstract void set(int index, double value);
+
+    public abstract int capacity();
+
+    /**
+     * Grows the column to hold at least the given number of values, keeping the current ones.
+     *
+     * @param capacity the capacity needed
+     */
+    public abstract void ensureCapacity(int capacity);
+
+    public void move(int from, int to) {
+        set(to, get(from));
+    }
+
+    private static class Heap extends DoubleColumn {
+
+        private double[] mValues;
+
+        private Heap(int capacity) {
+            mValues = new double[capacity];
+        }
+
+        @Override
+        public double get(int index) {
+            return mValues[index];
+        }
+
+        @Override
+        public void set(int index, double value) {
+            mValues[index] = value;
+        }
+
+        @Override
+        public int capacity() {
+            return mValues.length;
+        }
+
+        @Override
+        public void ensureCapacity(int capacity) {
+            if (capacity > mValues.length)
+                mValues = Arrays.copyOf(mValues, Math.max(capacity, mValues.length * 2));
+        }
+    }
+
+    private static class Direct extends DoubleColumn {
+
+        private DoubleBuffer mValues;
+
+        private Direct(int capacity) {
+            mValues = allocate(capacity);
+        }
+
+        @Override
+        public double get(int index) {
+            return mValues.get(index);
+        }
+
+        @Override
+        public void set(int index, double value) {
+            mValues.put(index, value);
+        }
+
+        @Override
+        public int capacity() {
+            return mValues.capacity();
+        }
+
+        @Override
+        public void ensureCapacity(int capacity) {
+            if (capacity <= mValues.capacity())
+                return;
+            DoubleBuffer values = allocate(Math.max(capacity, mValues.capacity() * 2));
+            mValues.clear();
+            values.put(mValues);
+            values.clear();
+            // The old buffer's memory is released once it is collected
+            mValues = values;
+        }
+
+        private static DoubleBuffer allocate(int capacity) {
+            return ByteBuffer.allocateDirect(capacity * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+    }
+}
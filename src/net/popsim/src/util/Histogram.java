@@ -0,0 +1,92 @@
+package net.popsim.src.util;
+
+/**
+ * A fixed-size histogram of non-negative long values, such as durations in nanoseconds.
+ * Values are counted in log-linear buckets with 16 sub-buckets per power of two, so any value reported back is within
+ * about 6% of the recorded one. Recording never allocates.
+ * <br>Recording is meant to be done from a single thread; reading from other threads gives a close, but not exact,
+ * picture while recording is in progress.
+ */
+public class Histogram {
+
+    private static final int LINEAR = 32;
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = LINEAR + (63 - SUB_BITS) * SUB;
+
+    private static int indexOf(long value) {
+        if (value < LINEAR)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return LINEAR + (shift - 1) * SUB + (int) (value >>> shift) - SUB;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < LINEAR)
+            return index;
+        int shift = (index - LINEAR) / SUB + 1;
+        long sub = (index - LINEAR) % SUB + SUB;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private final long[] mCounts;
+    private long mCount;
+    private long mTotal;
+    private long mMax;
+
+    public Histogram() {
+        mCounts = new long[BUCKETS];
+    }
+
+    /**
+     * Records a value. Negative values are counted as zero.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        mCounts[indexOf(value)]++;
+        mCount++;
+        mTotal += value;
+        if (value > mMax)
+            mMax = value;
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length; i++)
+            mCounts[i] = 0;
+        mCount = mTotal = mMax = 0;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public double getMean() {
+        return mCount == 0? 0 : mTotal / (double) mCount;
+    }
+
+    /**
+     * @param percentile the percentile to look up, between 0 and 100
+     *
+     * @return The highest value that could have been recorded in the bucket that contains the given percentile.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = mCount;
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= rank)
+                return Math.min(highestValueOf(i), mMax);
+        }
+        return mMax;
+    }
+}
@@ -0,0 +1,74 @@
+package net.popsim.src.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A lock-free triple buffer for handing the latest value from one writer thread to one reader thread.
+ * The writer fills the back buffer and publishes it; the reader picks up the most recently published buffer.
+ * Neither side ever waits on the other, and a buffer is never written while it is being read.
+ *
+ * @param <T> the type of buffer
+ */
+public class TripleBuffer<T> {
+
+    /**
+     * Set on the shared index when it holds a buffer the reader has not seen yet.
+     */
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    private final Object[] mBuffers;
+    private final AtomicInteger mShared;
+    private int mBack;
+    private int mFront;
+
+    /**
+     * Creates a new TripleBuffer.
+     *
+     * @param factory creates each of the three buffers
+     */
+    public TripleBuffer(Supplier<T> factory) {
+        mBuffers = new Object[] {factory.get(), factory.get(), factory.get()};
+        mFront = 0;
+        mShared = new AtomicInteger(1);
+        mBack = 2;
+    }
+
+    /**
+     * @return The buffer owned by the writer.
+     */
+    @SuppressWarnings("unchecked")
+    public T getBack() {
+        return (T) mBuffers[mBack];
+    }
+
+    /**
+     * Publishes the back buffer to the reader, and takes ownership of another one to write into.
+     * Only the writer thread may call this.
+     */
+    public void publish() {
+        mBack = mShared.getAndSet(mBack | FRESH) & INDEX;
+    }
+
+    /**
+     * @return The buffer owned by the reader.
+     */
+    @SuppressWarnings("unchecked")
+    public T getFront() {
+        return (T) mBuffers[mFront];
+    }
+
+    /**
+     * Swaps the latest published buffer into the front, if there is one.
+     * Only the reader thread may call this.
+     *
+     * @return True if the front buffer changed.
+     */
+    public boolean update() {
+        if ((mShared.get() & FRESH) == 0)
+            return false;
+        mFront = mShared.getAndSet(mFront) & INDEX;
+        return true;
+    }
+}
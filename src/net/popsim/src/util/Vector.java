@@ -11,6 +11,18 @@ public class Vector implements Cloneable {
     public static final String X = "X";
     public static final String Y = "Y";
 
+    /**
+     * The number of scratch vectors each thread has.
+     */
+    public static final int SCRATCH_SIZE = 8;
+
+    private static final ThreadLocal<Vector[]> SCRATCH = ThreadLocal.withInitial(() -> {
+        Vector[] scratch = new Vector[SCRATCH_SIZE];
+        for (int i = 0; i < SCRATCH_SIZE; i++)
+            scratch[i] = new Vector();
+        return scratch;
+    });
+
     /**
      * Constructs a Vector using polar coordinates.
      *
@@ -23,6 +35,55 @@ public class Vector implements Cloneable {
         return new Vector((float) (mag * Math.cos(theta)), (float) (mag * Math.sin(theta)));
     }
 
+    /**
+     * Gets one of the current thread's scratch vectors, for intermediate results that shouldn't be allocated.
+     * The same index gives the same vector on the same thread, so a scratch vector is only good until the next use of
+     * its index, and shouldn't be kept or passed to code that might use scratch vectors itself.
+     *
+     * @param index the index of the scratch vector, less than {@link #SCRATCH_SIZE}
+     *
+     * @return The scratch vector, with whatever it last held.
+     */
+    public static Vector scratch(int index) {
+        return SCRATCH.get()[index];
+    }
+
+    /**
+     * @return The dot-product of two vectors given by their components.
+     */
+    public static double dot(double x0, double y0, double x1, double y1) {
+        return x0 * x1 + y0 * y1;
+    }
+
+    /**
+     * @return The square magnitude of a vector given by its components.
+     */
+    public static double squareMag(double x, double y) {
+        return x * x + y * y;
+    }
+
+    /**
+     * @return The magnitude of a vector given by its components.
+     */
+    public static double mag(double x, double y) {
+        return Math.sqrt(x * x + y * y);
+    }
+
+    /**
+     * @return The square distance between two points given by their coordinates.
+     */
+    public static double squareDistance(double x0, double y0, double x1, double y1) {
+        double dx = x1 - x0, dy = y1 - y0;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * @return The distance between two points given by their coordinates.
+     */
+    public static double distance(double x0, double y0, double x1, double y1) {
+        return Math.sqrt(squareDistance(x0, y0, x1, y1));
+    }
+
     /**
      * X component of the vector.
      */
@@ -118,7 +179,78 @@ public class Vector implements Cloneable {
         double m = mag();
         if (m == 0)
             return result.set(0, 0);
-        else return multiply(1 / mag(), result);
+        else return multiply(1 / m, result);
+    }
+
+    /**
+     * Adds components to this Vector in place.
+     *
+     * @param x the x component to add
+     * @param y the y component to add
+     *
+     * @return This, for convenience.
+     */
+    public Vector addLocal(double x, double y) {
+        mX += x;
+        mY += y;
+        return this;
+    }
+
+    /**
+     * Adds another Vector to this Vector in place.
+     *
+     * @param other the other Vector to add
+     *
+     * @return This, for convenience.
+     */
+    public Vector addLocal(Vector other) {
+        return addLocal(other.mX, other.mY);
+    }
+
+    /**
+     * Adds another Vector times a value to this Vector in place.
+     *
+     * @param other  the other Vector to add
+     * @param scalar the factor to multiply the other Vector by
+     *
+     * @return This, for convenience.
+     */
+    public Vector addScaledLocal(Vector other, double scalar) {
+        return addLocal(other.mX * scalar, other.mY * scalar);
+    }
+
+    /**
+     * Subtracts another Vector from this Vector in place.
+     *
+     * @param other the other Vector to subtract
+     *
+     * @return This, for convenience.
+     */
+    public Vector subtractLocal(Vector other) {
+        return addLocal(-other.mX, -other.mY);
+    }
+
+    /**
+     * Multiplies this Vector by a value in place.
+     *
+     * @param scalar the factor to multiply by
+     *
+     * @return This, for convenience.
+     */
+    public Vector multiplyLocal(double scalar) {
+        mX *= scalar;
+        mY *= scalar;
+        return this;
+    }
+
+    /**
+     * Normalizes this Vector in place.
+     *
+     * @return This, for convenience.
+     * @see #normalize(Vector)
+     */
+    public Vector normalizeLocal() {
+        return normalize(this);
     }
 
     /**
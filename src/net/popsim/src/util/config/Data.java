@@ -1,7 +1,6 @@
 package net.popsim.src.util.config;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 // Todo: Document
 public class Data implements WritableData {
@@ -10,8 +9,8 @@ public class Data implements WritableData {
 
     public Data(Map<? extends String, ?> map) {
         if (map != null)
-            mDataMap = new HashMap<>(map);
-        else mDataMap = new HashMap<>();
+            mDataMap = new LinkedHashMap<>(map);
+        else mDataMap = new LinkedHashMap<>();
     }
 
     public Data() {
@@ -35,4 +34,11 @@ public class Data implements WritableData {
     public boolean containsKey(String key) {
         return mDataMap.containsKey(key);
     }
+
+    /**
+     * @return The keys in the data, in the order they were first set.
+     */
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(mDataMap.keySet());
+    }
 }
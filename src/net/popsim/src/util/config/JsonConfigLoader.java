@@ -1,7 +1,6 @@
 package net.popsim.src.util.config;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.*;
 
 import java.io.*;
 
@@ -30,6 +29,35 @@ public class JsonConfigLoader {
         return target;
     }
 
+    /**
+     * Reads a file as a JSON tree without converting it to a Target, so it can be modified before loading.
+     *
+     * @param source the file to read
+     *
+     * @return The parsed JSON.
+     * @throws ConfigException if the file cannot be read or parsed.
+     */
+    public JsonElement read(File source) throws ConfigException {
+        try (FileReader reader = new FileReader(source)) {
+            return JsonParser.parseReader(reader);
+        } catch (FileNotFoundException e) {
+            throw new ConfigException("Unable to locate file: " + source.getAbsolutePath(), e);
+        } catch (Exception e) {
+            throw new ConfigException("Error while reading file", e);
+        }
+    }
+
+    public Target load(JsonElement source) throws ConfigException {
+        Target target;
+        try {
+            target = GSON.fromJson(source, mType);
+            target.postLoad();
+        } catch (Exception e) {
+            throw new ConfigException("Error while loading config", e);
+        }
+        return target;
+    }
+
     public void save(File destination, Target target) throws ConfigException {
         try (FileWriter writer = new FileWriter(destination)) {
             GSON.toJson(target, writer);
@@ -0,0 +1,55 @@
+package net.popsim.src.util.random;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A counter-based generator: each number is a hash of the world seed, the entity's id, the tick and how many numbers
+ * have been drawn so far that tick. There is no shared state, so entities can draw in parallel without contention, and
+ * an entity draws the same numbers whatever thread updates it and whatever the others do.
+ * <br>The hash is SplitMix64's finalizer, which passes BigCrush when fed a counter.
+ */
+public class CounterRng extends Rng {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Scrambles a long so that nearby inputs give unrelated outputs.
+     *
+     * @param z the long to scramble
+     *
+     * @return The scrambled long.
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private final long mKey;
+    private final LongSupplier mClock;
+    private long mTick;
+    private long mCounter;
+
+    /**
+     * Creates a new CounterRng.
+     *
+     * @param seed  the world seed
+     * @param id    the id of the entity drawing the numbers
+     * @param clock gives the current tick
+     */
+    public CounterRng(long seed, long id, LongSupplier clock) {
+        mKey = mix(seed ^ mix(id + GOLDEN_GAMMA));
+        mClock = clock;
+        mTick = Long.MIN_VALUE;
+    }
+
+    @Override
+    public long nextLong() {
+        long tick = mClock.getAsLong();
+        if (tick != mTick) {
+            mTick = tick;
+            mCounter = 0;
+        }
+        return mix(mKey ^ mix(tick * GOLDEN_GAMMA + mCounter++));
+    }
+}
@@ -0,0 +1,51 @@
+package net.popsim.src.util.random;
+
+import java.util.Random;
+
+/**
+ * A generator backed by a {@link Random} of its own, drawing the same numbers entities drew before generators were
+ * pluggable.
+ */
+public class LegacyRng extends Rng {
+
+    private final Random mRandom;
+
+    public LegacyRng(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    @Override
+    public long nextLong() {
+        return mRandom.nextLong();
+    }
+
+    @Override
+    public int nextInt() {
+        return mRandom.nextInt();
+    }
+
+    @Override
+    public int nextInt(int bound) {
+        return mRandom.nextInt(bound);
+    }
+
+    @Override
+    public double nextDouble() {
+        return mRandom.nextDouble();
+    }
+
+    @Override
+    public float nextFloat() {
+        return mRandom.nextFloat();
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return mRandom.nextBoolean();
+    }
+
+    @Override
+    public double nextGaussian() {
+        return mRandom.nextGaussian();
+    }
+}
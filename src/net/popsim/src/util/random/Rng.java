@@ -0,0 +1,97 @@
+package net.popsim.src.util.random;
+
+/**
+ * A source of random numbers for one entity. Not thread safe, as an entity is only ever updated by one thread at a
+ * time.
+ * <br>Subclasses only have to give random longs; the rest is derived from those the same way for every generator.
+ */
+public abstract class Rng {
+
+    /**
+     * The kinds of generator a world can be configured with.
+     */
+    public enum Type {
+        COUNTER("Counter"),
+        LEGACY("Legacy");
+
+        private final String mName;
+
+        Type(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public static Type fromName(String name) {
+            for (Type type : values())
+                if (type.mName.equalsIgnoreCase(name))
+                    return type;
+            throw new IllegalArgumentException("Unknown random generator: " + name);
+        }
+    }
+
+    private double mNextGaussian;
+    private boolean mHaveNextGaussian;
+
+    /**
+     * @return A random long, with all 64 bits random.
+     */
+    public abstract long nextLong();
+
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * @param bound the bound, which must be positive
+     *
+     * @return A random int in [0, bound).
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0)
+            throw new IllegalArgumentException("Bound must be positive");
+        // Scales 31 random bits into the range, which is even enough for any int bound in practice
+        return (int) (((nextLong() >>> 33) * bound) >>> 31);
+    }
+
+    /**
+     * @return A random double in [0, 1).
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * @return A random float in [0, 1).
+     */
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    public boolean nextBoolean() {
+        return nextLong() < 0;
+    }
+
+    /**
+     * @return A normally distributed double with a mean of 0 and a standard deviation of 1.
+     */
+    public double nextGaussian() {
+        if (mHaveNextGaussian) {
+            mHaveNextGaussian = false;
+            return mNextGaussian;
+        }
+        // Marsaglia's polar method, which gives two at a time
+        double v1, v2, s;
+        do {
+            v1 = 2 * nextDouble() - 1;
+            v2 = 2 * nextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+        mNextGaussian = v2 * multiplier;
+        mHaveNextGaussian = true;
+        return v1 * multiplier;
+    }
+}